@@ -5,8 +5,17 @@ if [ -z "$ACCESS_TOKEN" ]; then
     exit 1
 fi
 
-RESULT=$(curl -s -H "Authorization: Bearer ${ACCESS_TOKEN}" "${REWARDS_ENDPOINT}/points/tx")
+# Transactions come back a page at a time, so print each page and follow its nextCursor until there is none
+CURSOR=""
+while :; do
+    RESULT=$(curl -s -H "Authorization: Bearer ${ACCESS_TOKEN}" "${REWARDS_ENDPOINT}/points/tx?limit=500${CURSOR:+&cursor=$CURSOR}")
+    if [ -z "$RESULT" ]; then
+        break
+    fi
 
-if [ -n "$RESULT" ]; then
     echo $RESULT | python3 -m json.tool
-fi
+    CURSOR=$(echo $RESULT | python3 -c 'import json, sys; print(json.load(sys.stdin).get("nextCursor", ""))')
+    if [ -z "$CURSOR" ]; then
+        break
+    fi
+done
@@ -0,0 +1,212 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures checkout latency against cart size on a live cluster. Before every checkout the benchmark customer's
+ * cart is refilled with one of each of the first cartSize priced catalog items, and their balance is topped up,
+ * so each measured call does a complete order. The handler reads the same CLUSTER_ENDPOINT, DB_NAME and
+ * DB_RW_USERNAME environment variables as in Lambda. BENCHMARK_USERNAME picks the customer, which otherwise is
+ * the first one found. Every checkout adds a transaction and order items to that customer's history.
+ * <p>
+ * {@link #checkout()} runs the handler. {@link #checkoutPerItem()} is the baseline: the same order written the way
+ * the handler did before checkout became a constant number of round trips, with one order item insert and one cart
+ * item delete per cart row. Both run in one harness, so a single run gives both curves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CheckoutBenchmark {
+    @Param({"1", "5", "20", "50"})
+    public int cartSize;
+
+    private ShoppingCartCheckoutFunction checkout;
+    private APIGatewayProxyRequestEvent event;
+    private UUID customerId;
+    private String username;
+    private final List<UUID> itemIds = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        checkout = new ShoppingCartCheckoutFunction();
+
+        username = System.getenv("BENCHMARK_USERNAME");
+        try (PooledConnection pooled = checkout.getConnectionPool().borrow()) {
+            PreparedStatement customerStmt = pooled.prepareStatement(username == null
+                    ? "select id, username from xpoints.customers order by id limit 1"
+                    : "select id, username from xpoints.customers where username = ?");
+            if (username != null)
+                customerStmt.setString(1, username);
+            try (ResultSet rs = customerStmt.executeQuery()) {
+                if (!rs.next())
+                    throw new IllegalStateException("Benchmark customer not found");
+                customerId = (UUID) rs.getObject("id");
+                username = rs.getString("username");
+            }
+
+            PreparedStatement itemsStmt = pooled.prepareStatement("select id from xpoints.catalog_items where points_price is not null order by id limit ?");
+            itemsStmt.setInt(1, cartSize);
+            try (ResultSet rs = itemsStmt.executeQuery()) {
+                while (rs.next()) {
+                    itemIds.add((UUID) rs.getObject("id"));
+                }
+            }
+        }
+
+        if (itemIds.size() < cartSize)
+            throw new IllegalStateException("Only " + itemIds.size() + " priced catalog items for a cart of " + cartSize);
+
+        // The handler only reads the username claim, so the token needs no valid header or signature
+        String claims = "{\"username\": \"" + username + "\"}";
+        String token = "e30." + Base64.getUrlEncoder().withoutPadding().encodeToString(claims.getBytes(StandardCharsets.UTF_8)) + ".e30";
+        event = new APIGatewayProxyRequestEvent().withHeaders(Map.of("authorization", "Bearer " + token));
+    }
+
+    @Setup(Level.Invocation)
+    public void fillCart() throws SQLException {
+        try (PooledConnection pooled = checkout.getConnectionPool().borrow()) {
+            PreparedStatement clearStmt = pooled.prepareStatement("delete from xpoints.shopping_cart_items where customer_id = ?");
+            clearStmt.setObject(1, customerId);
+            clearStmt.executeUpdate();
+
+            PreparedStatement insertStmt = pooled.prepareStatement("insert into xpoints.shopping_cart_items (customer_id, item_id, quantity) values (?, ?, 1)");
+            for (UUID itemId : itemIds) {
+                insertStmt.setObject(1, customerId);
+                insertStmt.setObject(2, itemId);
+                insertStmt.addBatch();
+            }
+            insertStmt.executeBatch();
+
+            PreparedStatement balanceStmt = pooled.prepareStatement("insert into xpoints.points_balances (customer_id, points_balance) values (?, 1000000000) on conflict (customer_id) do update set points_balance = excluded.points_balance");
+            balanceStmt.setObject(1, customerId);
+            balanceStmt.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent checkout() {
+        APIGatewayProxyResponseEvent response = checkout.handleRequest(event, null);
+        if (response.getStatusCode() != 200)
+            throw new IllegalStateException("Checkout failed: " + response.getBody());
+        return response;
+    }
+
+    @Benchmark
+    public UUID checkoutPerItem() throws SQLException {
+        try (PooledConnection pooled = checkout.getConnectionPool().borrow()) {
+            pooled.getConnection().setAutoCommit(false);
+
+            PreparedStatement customerStmt = pooled.prepareStatement("select id from xpoints.customers where username = ?");
+            customerStmt.setString(1, username);
+            try (ResultSet rs = customerStmt.executeQuery()) {
+                if (!rs.next())
+                    throw new IllegalStateException("Benchmark customer not found");
+            }
+
+            PreparedStatement cartStmt = pooled.prepareStatement("select cart.item_id, cart.quantity, cat.points_price, cat.name, cat.description from xpoints.shopping_cart_items cart inner join xpoints.catalog_items cat on cart.item_id = cat.id where cart.customer_id = ?");
+            cartStmt.setObject(1, customerId);
+            List<CartRow> cartItems = new ArrayList<>();
+            long pointsTotal = 0L;
+            try (ResultSet rs = cartStmt.executeQuery()) {
+                while (rs.next()) {
+                    CartRow row = new CartRow((UUID) rs.getObject("item_id"), rs.getInt("quantity"), rs.getInt("points_price"),
+                            rs.getString("name"), rs.getString("description"));
+                    cartItems.add(row);
+                    pointsTotal += (long) row.pointsPrice() * row.quantity();
+                }
+            }
+
+            PreparedStatement balanceStmt = pooled.prepareStatement("select points_balance from xpoints.points_balances where customer_id = ?");
+            balanceStmt.setObject(1, customerId);
+            try (ResultSet rs = balanceStmt.executeQuery()) {
+                if (!rs.next() || rs.getLong("points_balance") < pointsTotal)
+                    throw new IllegalStateException("Insufficient points to complete order");
+            }
+
+            UUID transactionId = UUID.randomUUID();
+            PreparedStatement orderItemStmt = pooled.prepareStatement("insert into xpoints.order_items (tx_id, cat_item_id, unit_cnt, unit_points_price, item_name, item_description) values(?, ?, ?, ?, ?, ?)");
+            PreparedStatement deleteStmt = pooled.prepareStatement("delete from xpoints.shopping_cart_items where customer_id = ? and item_id = ?");
+            for (CartRow item : cartItems) {
+                orderItemStmt.setObject(1, transactionId);
+                orderItemStmt.setObject(2, item.itemId());
+                orderItemStmt.setInt(3, item.quantity());
+                orderItemStmt.setInt(4, item.pointsPrice());
+                orderItemStmt.setString(5, item.name());
+                orderItemStmt.setString(6, item.description());
+                orderItemStmt.executeUpdate();
+
+                deleteStmt.setObject(1, customerId);
+                deleteStmt.setObject(2, item.itemId());
+                deleteStmt.executeUpdate();
+            }
+
+            PreparedStatement txStmt = pooled.prepareStatement("insert into xpoints.transactions (id, customer_id, tx_type, points) values (?, ?, ?, ?)");
+            txStmt.setObject(1, transactionId);
+            txStmt.setObject(2, customerId);
+            txStmt.setString(3, "SPEND");
+            txStmt.setLong(4, -pointsTotal);
+            txStmt.executeUpdate();
+
+            PreparedStatement updateBalanceStmt = pooled.prepareStatement("update xpoints.points_balances set points_balance = points_balance - ? where customer_id = ?");
+            updateBalanceStmt.setLong(1, pointsTotal);
+            updateBalanceStmt.setObject(2, customerId);
+            updateBalanceStmt.executeUpdate();
+
+            pooled.getConnection().commit();
+            return transactionId;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        checkout.close();
+    }
+
+    private record CartRow(UUID itemId, int quantity, int pointsPrice, String name, String description) {}
+}
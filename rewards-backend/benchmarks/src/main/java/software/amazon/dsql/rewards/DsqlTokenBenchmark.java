@@ -0,0 +1,86 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dsql.DsqlUtilities;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares the cost of getting an IAM auth token from {@link DsqlLib}: signing one the way every call used to, with
+ * a new {@link DsqlUtilities} and credentials provider, a cold fetch that signs with the shared utilities, and a
+ * fetch served from the token cache. Signing is local, so no cluster is needed; placeholder credentials are set
+ * as system properties unless real ones are already configured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DsqlTokenBenchmark {
+    private static final String ENDPOINT = "benchmark.dsql.us-east-1.on.aws";
+
+    private ClusterConfig clusterConfig;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (System.getenv("AWS_ACCESS_KEY_ID") == null && System.getProperty("aws.accessKeyId") == null) {
+            System.setProperty("aws.accessKeyId", "AKIDEXAMPLE");
+            System.setProperty("aws.secretAccessKey", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+        }
+
+        clusterConfig = new ClusterConfig(ENDPOINT, Region.US_EAST_1, null, "postgres", "rewards_rw");
+        DsqlLib.getPasswordToken(clusterConfig);
+    }
+
+    @Benchmark
+    public String uncachedPerCall() {
+        DsqlUtilities utilities = DsqlUtilities.builder()
+                .region(clusterConfig.getRegion())
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+
+        return utilities.generateDbConnectAuthToken(builder -> builder.hostname(ENDPOINT));
+    }
+
+    @Benchmark
+    public String coldFetch() {
+        DsqlLib.clearTokenCache();
+        return DsqlLib.getPasswordToken(clusterConfig);
+    }
+
+    @Benchmark
+    public String cachedFetch() {
+        return DsqlLib.getPasswordToken(clusterConfig);
+    }
+}
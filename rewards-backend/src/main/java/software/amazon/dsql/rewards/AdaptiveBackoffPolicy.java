@@ -0,0 +1,136 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Backoff that adapts to contention on each key. Every conflict doubles the key's base delay and every commit
+ * lowers it by a fixed step (AIMD), so hot keys such as a customer's balance row during a promotion back off
+ * further, while keys that rarely conflict retry almost immediately. The recent conflict rate per key is kept
+ * as an exponentially weighted average. A key's delay is stretched by up to twice as much again while its
+ * conflict rate is high, and grows with each further attempt of the same transaction. Each key's state is an
+ * immutable value replaced atomically in the map, so readers never see it half updated. When the map is full,
+ * keys back at the minimum delay are dropped first, then the least recently used half. The defaults suit DSQL
+ * conflicts, which clear within milliseconds; callers backing off from service quotas can raise the minimum delay
+ * and step.
+ */
+public class AdaptiveBackoffPolicy implements BackoffPolicy {
+    private static final double DEFAULT_MIN_DELAY_MILLIS = 5d;
+    private static final double MAX_DELAY_MILLIS = 1000 * 5d;
+    private static final double DEFAULT_DECREASE_STEP_MILLIS = 10d;
+    private static final double INCREASE_FACTOR = 2d;
+    private static final double RATE_WEIGHT = 0.1d;
+    private static final int MAX_KEYS = 10_000;
+
+    private final double minDelayMillis;
+    private final double decreaseStepMillis;
+    private final Map<String, KeyState> states = new ConcurrentHashMap<>();
+
+
+    public AdaptiveBackoffPolicy() {
+        this(DEFAULT_MIN_DELAY_MILLIS, DEFAULT_DECREASE_STEP_MILLIS);
+    }
+
+    /**
+     * @param minDelayMillis        Base delay of keys without recent conflicts
+     * @param decreaseStepMillis    How much each success lowers a key's base delay
+     */
+    public AdaptiveBackoffPolicy(double minDelayMillis, double decreaseStepMillis) {
+        if (minDelayMillis <= 0 || minDelayMillis > MAX_DELAY_MILLIS || decreaseStepMillis <= 0)
+            throw new IllegalArgumentException("Minimum delay must be positive and at most " + MAX_DELAY_MILLIS
+                    + " ms, and the step positive");
+
+        this.minDelayMillis = minDelayMillis;
+        this.decreaseStepMillis = decreaseStepMillis;
+    }
+
+    @Override
+    public long delayMillis(String key, int attempt) {
+        KeyState state = states.get(normalize(key));
+
+        double delay = state == null ? minDelayMillis : state.delayMillis() * (1d + state.conflictRate());
+        delay = Math.min(MAX_DELAY_MILLIS, delay * Math.max(1, attempt));
+
+        // Jitter between half and all of the current delay so that colliding retries spread out
+        return (long) (delay * (0.5d + Math.random() * 0.5d));
+    }
+
+    @Override
+    public void onConflict(String key) {
+        if (states.size() >= MAX_KEYS)
+            evict();
+
+        states.compute(normalize(key), (k, state) -> state == null
+                ? new KeyState(minDelayMillis * INCREASE_FACTOR, RATE_WEIGHT, System.nanoTime())
+                : new KeyState(Math.min(MAX_DELAY_MILLIS, state.delayMillis() * INCREASE_FACTOR),
+                               state.conflictRate() + RATE_WEIGHT * (1d - state.conflictRate()), System.nanoTime()));
+    }
+
+    @Override
+    public void onSuccess(String key) {
+        states.computeIfPresent(normalize(key), (k, state) ->
+                new KeyState(Math.max(minDelayMillis, state.delayMillis() - decreaseStepMillis),
+                             state.conflictRate() - RATE_WEIGHT * state.conflictRate(), System.nanoTime()));
+    }
+
+    /**
+     * Returns the recent fraction of transactions for the key that failed with a concurrency conflict.
+     *
+     * @param key   What the transactions contend on
+     * @return  Conflict rate between 0 and 1
+     */
+    public double getConflictRate(String key) {
+        KeyState state = states.get(normalize(key));
+        return state == null ? 0d : state.conflictRate();
+    }
+
+    /**
+     * Makes room for new keys. Removing an entry only succeeds while it still holds the state that was tested, so
+     * a key updated in the meantime is kept.
+     */
+    private void evict() {
+        // Keys back at the minimum delay carry no information worth keeping
+        states.entrySet().removeIf(e -> e.getValue().delayMillis() <= minDelayMillis);
+        if (states.size() < MAX_KEYS)
+            return;
+
+        // Every key is still backing off, so drop the half that has gone longest without a conflict or commit
+        long[] touched = states.values().stream().mapToLong(KeyState::touchedNanos).toArray();
+        if (touched.length == 0)
+            return;
+
+        Arrays.sort(touched);
+        long cutoff = touched[touched.length / 2];
+        states.entrySet().removeIf(e -> e.getValue().touchedNanos() - cutoff <= 0);
+    }
+
+    private static String normalize(String key) {
+        return key == null ? "" : key;
+    }
+
+    /**
+     * @param delayMillis   Base delay before the conflict rate and attempt are applied
+     * @param conflictRate  Exponentially weighted fraction of recent transactions that conflicted
+     * @param touchedNanos  {@link System#nanoTime()} of the last conflict or commit
+     */
+    private record KeyState(double delayMillis, double conflictRate, long touchedNanos) {}
+}
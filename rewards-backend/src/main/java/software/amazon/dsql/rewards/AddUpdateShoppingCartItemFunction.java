@@ -36,11 +36,8 @@ import java.util.UUID;
 public class AddUpdateShoppingCartItemFunction extends BaseRewardsFunction implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
     private static final Logger logger = LoggerFactory.getLogger(AddUpdateShoppingCartItemFunction.class);
-    private PreparedStatement getCustStmt;
-    private PreparedStatement getCartItemStmt;
-    private PreparedStatement insertStmt;
-    private PreparedStatement getCatalogItemStmt;
-    private PreparedStatement updateStmt;
+    private PreparedStatement upsertStmt;
+    private PreparedStatement decrementStmt;
     private PreparedStatement deleteStmt;
 
     public AddUpdateShoppingCartItemFunction() {
@@ -85,7 +82,7 @@ public class AddUpdateShoppingCartItemFunction extends BaseRewardsFunction imple
                 return responseEvent;
             }
 
-            process(arguments, username);
+            process(arguments, username, context);
             responseEvent.setStatusCode(200);
         } catch (JsonSyntaxException e) {
             logger.error("Poorly formatted JSON input", e);
@@ -99,114 +96,61 @@ public class AddUpdateShoppingCartItemFunction extends BaseRewardsFunction imple
         return responseEvent;
     }
 
-    private void process(FunctionArguments arguments, String username) {
-        int attempt = 0;
-        boolean retry = true;
-        boolean forceReconnect = false;
-
-        while (retry && ++attempt <= MAX_DB_RETRIES) {
-            ResultSet rs1 = null;
-            ResultSet rs2 = null;
-            ResultSet rs3 = null;
-            Connection conn = null;
-
-            try {
-                conn = getConnection(forceReconnect);
-
-                UUID customerId;
-                getCustStmt.setString(1, username);
-                rs1 = getCustStmt.executeQuery();
-                if (rs1.next()) {
-                    customerId = (UUID) rs1.getObject(1);
-                } else {
-                    throw new IllegalArgumentException("Customer " + username + " not found");
-                }
-
-                getCartItemStmt.setObject(1, customerId);
-                getCartItemStmt.setObject(2, arguments.getItemId());
-                rs2 = getCartItemStmt.executeQuery();
-                if (rs2.next()) {
-                    int netQty = arguments.getQuantity() + rs2.getInt("quantity");
-                    if (netQty < 1) {
-                        deleteStmt.setObject(1, customerId);
-                        deleteStmt.setObject(2, arguments.getItemId());
-                        deleteStmt.executeUpdate();
-                    } else {
-                        getCatalogItemStmt.setObject(1, arguments.getItemId());
-                        rs3 = getCatalogItemStmt.executeQuery();
-                        if (rs3.next()) {
-                            updateStmt.setInt(1, netQty);
-                            updateStmt.setObject(2, customerId);
-                            updateStmt.setObject(3, arguments.getItemId());
-                            updateStmt.executeUpdate();
-                        } else {
-                            throw new IllegalArgumentException("Catalog item " + arguments.getItemId() + " not found");
-                        }
-                    }
-                } else {
-                    if (arguments.getQuantity() > 0) {
-                        getCatalogItemStmt.setObject(1, arguments.getItemId());
-                        rs3 = getCatalogItemStmt.executeQuery();
-                        if (rs3.next()) {
-                            insertStmt.setObject(1, customerId);
-                            insertStmt.setObject(2, arguments.getItemId());
-                            insertStmt.setInt(3, arguments.getQuantity());
-                            insertStmt.executeUpdate();
-                        } else {
-                            throw new IllegalArgumentException("Catalog item " + arguments.getItemId() + " not found");
-                        }
+    private void process(FunctionArguments arguments, String username, Context context) {
+        inTransaction("customer:" + username, context, conn -> {
+            UUID customerId = requireCustomerId(username);
+
+            Integer netQty = null;
+            if (arguments.getQuantity() > 0) {
+                // Checks the catalog item exists and adds to the cart in one statement
+                upsertStmt.setObject(1, customerId);
+                upsertStmt.setInt(2, arguments.getQuantity());
+                upsertStmt.setObject(3, arguments.getItemId());
+                try (ResultSet rs = upsertStmt.executeQuery()) {
+                    if (rs.next()) {
+                        netQty = rs.getInt("quantity");
                     }
                 }
 
-                conn.commit();
-                retry = false;
-            } catch (SQLException e) {
-                DatabaseUtil.rollbackQuietly(conn);
-                if (DsqlLib.isConcurrencyConflict(e)) {
-                    logger.warn("Concurrency conflict: {}", e.getMessage());
-                } else {
-                    logger.error("SESSION ID:  {}", getSessionId());
-                    logger.error("ERROR CODE:  {}", e.getErrorCode());
-                    logger.error("SQL STATE:   {}", e.getSQLState());
-                    logger.error("Database error", e);
-
-                    if (DsqlLib.isConnectionError(e) && attempt < MAX_DB_RETRIES) {
-                        forceReconnect = true;
-                    } else {
-                        throw new RuntimeException(e);
+                if (netQty == null) {
+                    throw new IllegalArgumentException("Catalog item " + arguments.getItemId() + " not found");
+                }
+            } else {
+                // Removing needs no catalog check, so items since dropped from the catalog can still be removed.
+                // Nothing is written when the item isn't in the cart.
+                decrementStmt.setInt(1, arguments.getQuantity());
+                decrementStmt.setObject(2, customerId);
+                decrementStmt.setObject(3, arguments.getItemId());
+                try (ResultSet rs = decrementStmt.executeQuery()) {
+                    if (rs.next()) {
+                        netQty = rs.getInt("quantity");
                     }
                 }
-            } finally {
-                DatabaseUtil.closeQuietly(rs1);
-                DatabaseUtil.closeQuietly(rs2);
-                DatabaseUtil.closeQuietly(rs3);
             }
 
-            if (retry) {
-                backoff(attempt);
+            if (netQty != null && netQty < 1) {
+                deleteStmt.setObject(1, customerId);
+                deleteStmt.setObject(2, arguments.getItemId());
+                deleteStmt.executeUpdate();
             }
-        }
+
+            return null;
+        });
     }
 
     @Override
     protected void connectionSetup(Connection connection) throws SQLException {
         super.connectionSetup(connection);
         connection.setAutoCommit(false);
-        getCustStmt = connection.prepareStatement("select id from xpoints.customers where username = ?");
-        getCartItemStmt = connection.prepareStatement("select * from xpoints.shopping_cart_items where customer_id = ? and item_id = ?");
-        getCatalogItemStmt = connection.prepareStatement("select 1 from xpoints.catalog_items where id = ?");
-        insertStmt = connection.prepareStatement("insert into xpoints.shopping_cart_items (customer_id, item_id, quantity) values (?, ?, ?)");
-        deleteStmt = connection.prepareStatement("delete from xpoints.shopping_cart_items where customer_id = ? and item_id = ?");
-        updateStmt = connection.prepareStatement("update xpoints.shopping_cart_items set quantity = ? where customer_id = ? and item_id = ?");
+        upsertStmt = connection.prepareStatement("insert into xpoints.shopping_cart_items (customer_id, item_id, quantity) select ?, ci.id, ? from xpoints.catalog_items ci where ci.id = ? on conflict (customer_id, item_id) do update set quantity = xpoints.shopping_cart_items.quantity + excluded.quantity returning quantity");
+        decrementStmt = connection.prepareStatement("update xpoints.shopping_cart_items set quantity = quantity + ? where customer_id = ? and item_id = ? returning quantity");
+        deleteStmt = connection.prepareStatement("delete from xpoints.shopping_cart_items where customer_id = ? and item_id = ? and quantity < 1");
     }
 
     @Override
     protected void close() {
-        DatabaseUtil.closeQuietly(getCustStmt);
-        DatabaseUtil.closeQuietly(getCartItemStmt);
-        DatabaseUtil.closeQuietly(insertStmt);
-        DatabaseUtil.closeQuietly(getCatalogItemStmt);
-        DatabaseUtil.closeQuietly(updateStmt);
+        DatabaseUtil.closeQuietly(upsertStmt);
+        DatabaseUtil.closeQuietly(decrementStmt);
         DatabaseUtil.closeQuietly(deleteStmt);
         super.close();
     }
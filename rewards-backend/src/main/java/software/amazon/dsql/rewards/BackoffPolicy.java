@@ -0,0 +1,66 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+
+/**
+ * Decides how long to wait before retrying a transaction that failed with a concurrency conflict. Policies are
+ * told about every conflict and every commit for a key, such as a customer or a statement, so they can adapt
+ * to how contended that key is.
+ */
+public interface BackoffPolicy {
+
+    /**
+     * Returns the time to sleep before the given retry attempt.
+     *
+     * @param key       What the transaction contends on, or null if unknown
+     * @param attempt   The attempt that just failed, starting at 1
+     * @return  Delay in milliseconds
+     */
+    long delayMillis(String key, int attempt);
+
+    /**
+     * Called when a transaction for the key fails with a concurrency conflict.
+     *
+     * @param key   What the transaction contends on, or null if unknown
+     */
+    default void onConflict(String key) {
+    }
+
+    /**
+     * Called when a transaction for the key commits.
+     *
+     * @param key   What the transaction contends on, or null if unknown
+     */
+    default void onSuccess(String key) {
+    }
+
+    /**
+     * Creates the policy named by the DB_BACKOFF_POLICY environment variable, either "exponential" (the default)
+     * or "adaptive".
+     *
+     * @return  The configured backoff policy
+     */
+    static BackoffPolicy fromEnvironment() {
+        if ("adaptive".equalsIgnoreCase(System.getenv("DB_BACKOFF_POLICY"))) {
+            return new AdaptiveBackoffPolicy();
+        }
+
+        return new ExponentialBackoffPolicy();
+    }
+}
@@ -17,13 +17,13 @@
  */
 package software.amazon.dsql.rewards;
 
+import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
-import org.postgresql.jdbc.SslMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
@@ -32,30 +32,53 @@ import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
 import software.amazon.awssdk.services.dsql.DsqlClient;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public abstract class BaseRewardsFunction {
     private static final Logger logger = LoggerFactory.getLogger(BaseRewardsFunction.class);
-    private static final long maxConnectionDurationMillis = 55 * 60 * 1000L;  // 5 minutes less than DSQL's connection timeout
-
-    private static final double JITTER_BASE = 20d;
-    private static final double JITTER_MAX = 1000 * 5d;
     protected static final int MAX_DB_RETRIES = 5;
+    private static final long ROTATION_LEAD_MILLIS = 5 * 60 * 1000L;  // Start opening a replacement this long before expiry
+
+    private static final BackoffPolicy backoffPolicy = BackoffPolicy.fromEnvironment();
+    private static final CustomerIdCache customerIdCache = new CustomerIdCache();
+    private static final ExecutorService rotationExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "dsql-connection-rotation");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private final ClusterConfig clusterConfig;
     private final Region currentRegion;
-    private String sessionId = "";
-    private Connection connection;
-    private long connectionStartTime;
+    private final ConnectionPool connectionPool;
+    private final boolean backgroundRotation;
+    private final TransactionExecutor transactionExecutor;
+    private PooledConnection connection;
+    private CompletableFuture<PooledConnection> replacement;
+    private PreparedStatement customerIdStmt;
 
 
     BaseRewardsFunction() {
+        this(ClusterConfig.Profile.READ_WRITE);
+    }
+
+    /**
+     * @param profile   READ_ONLY for handlers that never write. They connect as DB_RO_USERNAME and use their own
+     *                  connection pool, while READ_WRITE handlers connect as DB_RW_USERNAME. Either falls back
+     *                  to DB_USERNAME when its own variable is not set.
+     */
+    BaseRewardsFunction(ClusterConfig.Profile profile) {
         try {
             Class.forName("org.postgresql.Driver");
         } catch (ClassNotFoundException e) {
@@ -63,7 +86,10 @@ public abstract class BaseRewardsFunction {
         }
 
         String localClusterEndpoint = System.getenv("CLUSTER_ENDPOINT");
-        String dbUsername = System.getenv("DB_USERNAME");
+        String dbUsername = System.getenv(profile == ClusterConfig.Profile.READ_ONLY ? "DB_RO_USERNAME" : "DB_RW_USERNAME");
+        if (dbUsername == null) {
+            dbUsername = System.getenv("DB_USERNAME");
+        }
         String dbName = System.getenv("DB_NAME");
 
         currentRegion = DefaultAwsRegionProviderChain.builder().build().getRegion();
@@ -73,71 +99,221 @@ public abstract class BaseRewardsFunction {
                 .credentialsProvider(DefaultCredentialsProvider.create())
                 .build();
 
-        clusterConfig = new ClusterConfig(localClusterEndpoint, currentRegion, api, dbName, dbUsername);
+        clusterConfig = new ClusterConfig(localClusterEndpoint, currentRegion, api, dbName, dbUsername, profile);
+        connectionPool = ConnectionPool.forCluster(clusterConfig);
+
+        // "background" (the default) opens the next connection ahead of time, "inline" reconnects on expiry
+        backgroundRotation = !"inline".equalsIgnoreCase(System.getenv("DB_ROTATION_MODE"));
+
+        transactionExecutor = new TransactionExecutor(this::getConnection, this::getSessionId, backoffPolicy, MAX_DB_RETRIES);
     }
 
+    /**
+     * Returns the connection this handler is pinned to, borrowing one from the shared pool on first use, once
+     * the current one has reached its maximum age, or when a reconnect is forced. {@link #connectionSetup} runs
+     * every time the pinned connection changes.
+     * <p>
+     * In background rotation mode a replacement connection is opened on another thread as the current one nears
+     * its maximum age, and is swapped in by the first call after it is ready. Requests then only pay for
+     * {@link #connectionSetup}, never for the TLS handshake and authentication of a new connection.
+     *
+     * @param forceReconnect    Discard the current connection and borrow another
+     * @return  The handler's connection
+     * @throws SQLException For database errors connecting
+     */
     protected Connection getConnection(boolean forceReconnect) throws SQLException {
-        if (!forceReconnect && System.currentTimeMillis() < connectionStartTime + maxConnectionDurationMillis) {
-            return connection;
+        if (!forceReconnect && connection != null) {
+            if (backgroundRotation) {
+                rotateInBackground();
+            }
+
+            if (!connection.isExpired()) {
+                return connection.getConnection();
+            }
         }
 
         if (connection != null) {
-            try {connection.close();} catch (SQLException ignored) {}
+            connection.markBroken();
+            connection.close();
             connection = null;
         }
 
-        Properties props = new Properties();
+        PooledConnection pooled = takeReplacement();
+        if (pooled == null) {
+            pooled = connectionPool.borrow();
+        }
 
-        // Set user for the connection
-        props.setProperty("user", clusterConfig.getDatabaseUsername());
+        try {
+            connectionSetup(pooled.getConnection());
+        } catch (SQLException e) {
+            pooled.markBroken();
+            pooled.close();
+            throw e;
+        }
 
-        // Set the IAM auth token as the password
-        props.setProperty("password", DsqlLib.getPasswordToken(clusterConfig));
+        connection = pooled;
+        return connection.getConnection();
+    }
 
-        // Note that verify-full does not work, only allow, prefer, require and verify-ca are supported.
-        props.setProperty("sslmode", SslMode.REQUIRE.name());
+    private void rotateInBackground() {
+        if (replacement == null) {
+            if (connection.getRemainingLifetimeMillis() <= ROTATION_LEAD_MILLIS) {
+                replacement = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return connectionPool.borrow(ROTATION_LEAD_MILLIS * 2);
+                    } catch (SQLException e) {
+                        throw new CompletionException(e);
+                    }
+                }, rotationExecutor);
+            }
+            return;
+        }
 
-        int attempt = 0;
-        while (attempt++ < MAX_DB_RETRIES) {
-            if (attempt > 1)
-                backoff(attempt);
+        if (!replacement.isDone()) {
+            return;
+        }
 
-            try {
-                connection = DriverManager.getConnection(clusterConfig.getJdbcUrl(), props);
-                connectionStartTime = System.currentTimeMillis();
+        PooledConnection next = takeReplacement();
+        if (next == null) {
+            return; // Fall back to reconnecting inline when the current connection expires
+        }
 
-                sessionId = DsqlLib.getSessionId(connection);
-                connectionSetup(connection);
+        try {
+            connectionSetup(next.getConnection());
+        } catch (SQLException e) {
+            logger.warn("Unable to set up replacement connection", e);
+            next.markBroken();
+            next.close();
+            return;
+        }
 
-                attempt = MAX_DB_RETRIES + 1;
-            } catch (SQLException e) {
-                if (attempt == MAX_DB_RETRIES || !DsqlLib.isConcurrencyConflict(e)) {
-                    logger.error("Failing at attempt: " + attempt + " with SQL State " + e.getSQLState(), e);
-                    throw e;
-                } else {
-                    logger.warn("Concurrency collision on attempt " + attempt);
-                }
-            }
+        // The old connection is no longer in use by this handler, so it can be retired right away
+        PooledConnection old = connection;
+        connection = next;
+        old.markBroken();
+        old.close();
+    }
+
+    /**
+     * Returns the connection opened by background rotation, waiting for it if it is still being opened, or null
+     * if there is none or it could not be opened.
+     */
+    private PooledConnection takeReplacement() {
+        if (replacement == null) {
+            return null;
         }
 
-        return connection;
+        CompletableFuture<PooledConnection> future = replacement;
+        replacement = null;
+
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            logger.warn("Background connection rotation failed", e.getCause() == null ? e : e.getCause());
+            return null;
+        }
     }
 
     protected String getSessionId() {
-        return sessionId;
+        return connection == null ? "" : connection.getSessionId();
     }
 
     protected void connectionSetup(Connection connection) throws SQLException {
+        customerIdStmt = connection.prepareStatement("select id from xpoints.customers where username = ?");
+    }
+
+    /**
+     * Returns the customer ID for a username, from the JVM-wide cache when possible so that most requests can
+     * query by customer ID without a lookup or a join on customers. Lookups run on the handler's current
+     * connection, inside any transaction in progress.
+     *
+     * @param username  The customer's username
+     * @return  The customer ID, or null if there is no such customer
+     * @throws SQLException For database errors looking up the customer
+     */
+    protected UUID getCustomerId(String username) throws SQLException {
+        return customerIdCache.get(username, name -> {
+            customerIdStmt.setString(1, name);
+            try (ResultSet rs = customerIdStmt.executeQuery()) {
+                return rs.next() ? (UUID) rs.getObject(1) : null;
+            }
+        });
+    }
+
+    /**
+     * Returns the customer ID for a username, failing if there is no such customer.
+     *
+     * @param username  The customer's username
+     * @return  The customer ID
+     * @throws SQLException For database errors looking up the customer
+     * @throws IllegalArgumentException If the customer does not exist
+     */
+    protected UUID requireCustomerId(String username) throws SQLException {
+        UUID customerId = getCustomerId(username);
+        if (customerId == null) {
+            throw new IllegalArgumentException("Customer " + username + " not found");
+        }
+
+        return customerId;
     }
 
     protected void close() {
+        if (replacement != null) {
+            replacement.thenAccept(PooledConnection::close);
+            replacement = null;
+        }
+
+        DatabaseUtil.closeQuietly(customerIdStmt);
         DatabaseUtil.closeQuietly(connection);
+        connection = null;
         try {clusterConfig.getApiClient().close();} catch (Exception ignored) {}
     }
 
-    protected void backoff(int attempt) {
-        long duration = (long) (Math.min(JITTER_MAX, JITTER_BASE * Math.pow(2.0d, attempt)) * Math.random());
-        try {Thread.sleep(duration);} catch (InterruptedException ignored) {}
+    /**
+     * Runs the work in a transaction on this handler's connection, retrying concurrency conflicts and
+     * reconnecting after connection errors. See {@link TransactionExecutor#execute}.
+     *
+     * @param work  The unit of work
+     * @return  The work's return value with the attempts made and the time spent backing off
+     */
+    protected <T> TransactionExecutor.Result<T> inTransaction(TransactionExecutor.Work<T> work) {
+        return inTransaction(null, null, work);
+    }
+
+    /**
+     * Runs the work in a transaction on this handler's connection. Backoff between retries adapts to conflicts
+     * seen on the given key, and retries stop once the Lambda invocation is about to run out of time.
+     *
+     * @param key       What the transaction contends on, such as a customer, or null if unknown
+     * @param context   The Lambda context of the current invocation, or null for no deadline
+     * @param work      The unit of work
+     * @return  The work's return value with the attempts made and the time spent backing off
+     */
+    protected <T> TransactionExecutor.Result<T> inTransaction(String key, Context context, TransactionExecutor.Work<T> work) {
+        long deadline = context == null ? Long.MAX_VALUE : System.currentTimeMillis() + context.getRemainingTimeInMillis();
+
+        TransactionExecutor.Result<T> result = transactionExecutor.execute(key, deadline, work);
+        if (result.attempts() > 1) {
+            logger.info("Transaction committed after {} attempts and {} ms of backoff", result.attempts(), result.backoffMillis());
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs the work in a read-only transaction on this handler's connection, so that every statement it runs
+     * sees the same snapshot. Meant for the GET handlers, which otherwise run each statement in its own
+     * autocommit transaction. See {@link TransactionExecutor#executeReadOnly}.
+     *
+     * @param work  The unit of work, which must only read
+     * @return  The work's return value with the attempts made and the time spent backing off
+     */
+    protected <T> TransactionExecutor.Result<T> inReadTransaction(TransactionExecutor.Work<T> work) {
+        return transactionExecutor.executeReadOnly(Long.MAX_VALUE, work);
+    }
+
+    protected ConnectionPool getConnectionPool() {
+        return connectionPool;
     }
 
     protected ClusterConfig getClusterConfig() {
@@ -0,0 +1,223 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.dsql.rewards.catalog.CatalogSnapshot;
+import software.amazon.dsql.rewards.catalog.CatalogStore;
+import software.amazon.dsql.rewards.model.CatalogImage;
+import software.amazon.dsql.rewards.model.CatalogItem;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+
+/**
+ * Returns several catalog items, with their images, in one call. Items come from the in-memory catalog snapshot
+ * unless CATALOG_SNAPSHOT is set to false; images are always read with a single query for all requested items.
+ */
+public class BatchGetCatalogItemsFunction extends BaseRewardsFunction implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(BatchGetCatalogItemsFunction.class);
+
+    private static final int MAX_ITEMS = 50;
+
+    private static final Gson gson = new Gson();
+
+    private final boolean useSnapshot = !"false".equalsIgnoreCase(System.getenv("CATALOG_SNAPSHOT"));
+    private final CatalogStore catalogStore;
+    private final ImageUrlSigner imageUrlSigner = ImageUrlSigner.isOnDemand() ? ImageUrlSigner.getInstance() : null;
+
+    private PreparedStatement itemsStmt;
+    private PreparedStatement imagesStmt;
+
+    public BatchGetCatalogItemsFunction() {
+        super(ClusterConfig.Profile.READ_ONLY);
+
+        try {
+            getConnection(false);
+        } catch (SQLException e) {
+            logger.error("Error initializing database connection.", e);
+            throw new RuntimeException("Error intializing database connection", e);
+        }
+
+        catalogStore = useSnapshot ? CatalogStore.forRegion(getConnectionPool(), getCurrentRegion().id()) : null;
+    }
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
+        APIGatewayProxyResponseEvent responseEvent = new APIGatewayProxyResponseEvent();
+        setCorsHeaders(responseEvent);
+
+        String idList = event.getQueryStringParameters() == null ? null : event.getQueryStringParameters().get("ids");
+        if (idList == null || idList.isBlank()) {
+            responseEvent.setBody(makeErrorJson("Missing item ids"));
+            responseEvent.setStatusCode(400);
+            return responseEvent;
+        }
+
+        try {
+            Set<UUID> itemIds = new LinkedHashSet<>();
+            for (String id : idList.split(",")) {
+                itemIds.add(UUID.fromString(id.trim()));
+            }
+
+            if (itemIds.size() > MAX_ITEMS) {
+                responseEvent.setBody(makeErrorJson("At most " + MAX_ITEMS + " items can be fetched at once"));
+                responseEvent.setStatusCode(400);
+                return responseEvent;
+            }
+
+            JsonObject data = new JsonObject();
+            data.add("products", process(new ArrayList<>(itemIds)));
+            responseEvent.setBody(gson.toJson(data));
+            responseEvent.setStatusCode(200);
+        } catch (IllegalArgumentException e) { // Bad UUID string
+            responseEvent.setBody(makeErrorJson(e.getMessage()));
+            responseEvent.setStatusCode(400);
+        }
+
+        return responseEvent;
+    }
+
+    /**
+     * Loads the items and their images. Unknown ids are left out.
+     *
+     * @param itemIds   Ids of the items, in the order they are to be returned
+     * @return  JSON array of the items found
+     */
+    private JsonArray process(List<UUID> itemIds) {
+        return inReadTransaction(conn -> {
+            JsonArray products = new JsonArray();
+            Array idArray = conn.createArrayOf("uuid", itemIds.toArray());
+
+            Map<UUID, CatalogItem> items = useSnapshot ? loadFromSnapshot(itemIds) : loadFromDatabase(idArray);
+
+            // Snapshot items are shared, so images are added to the JSON rather than to the items themselves
+            Map<UUID, List<CatalogImage>> images = new HashMap<>();
+            int param = 1;
+            if (imageUrlSigner == null) {
+                imagesStmt.setString(param++, getCurrentRegion().id());
+            }
+            imagesStmt.setArray(param, idArray);
+            try (ResultSet rs = imagesStmt.executeQuery()) {
+                while (rs.next()) {
+                    CatalogImage image = new CatalogImage();
+                    image.setId((UUID) rs.getObject("image_id"));
+                    image.setImageUrl(imageUrlSigner == null ? rs.getString("image_url") : imageUrlSigner.sign(rs.getString("image_file")));
+
+                    images.computeIfAbsent((UUID) rs.getObject("item_id"), k -> new ArrayList<>()).add(image);
+                }
+            }
+
+            for (UUID itemId : itemIds) {
+                CatalogItem item = items.get(itemId);
+                if (item != null) {
+                    JsonObject product = gson.toJsonTree(item).getAsJsonObject();
+                    product.add("images", gson.toJsonTree(images.getOrDefault(itemId, List.of())));
+                    products.add(product);
+                }
+            }
+
+            return products;
+        }).value();
+    }
+
+    private Map<UUID, CatalogItem> loadFromSnapshot(List<UUID> itemIds) throws SQLException {
+        CatalogSnapshot snapshot = catalogStore.getSnapshot();
+
+        Map<UUID, CatalogItem> items = new HashMap<>();
+        for (UUID itemId : itemIds) {
+            CatalogItem item = snapshot.get(itemId);
+            if (item != null)
+                items.put(itemId, item);
+        }
+
+        return items;
+    }
+
+    private Map<UUID, CatalogItem> loadFromDatabase(Array idArray) throws SQLException {
+        Map<UUID, CatalogItem> items = new HashMap<>();
+
+        int param = 1;
+        if (imageUrlSigner == null) {
+            itemsStmt.setString(param++, getCurrentRegion().id());
+        }
+        itemsStmt.setArray(param, idArray);
+        try (ResultSet rs = itemsStmt.executeQuery()) {
+            while (rs.next()) {
+                CatalogItem catalogItem = new CatalogItem();
+                catalogItem.setId((UUID) rs.getObject("id"));
+                catalogItem.setName(rs.getString("name"));
+                catalogItem.setDescription(rs.getString("description"));
+                catalogItem.setCategory(rs.getString("category"));
+                catalogItem.setUsdPrice(rs.getBigDecimal("usd_price"));
+                catalogItem.setPointsPrice(rs.getInt("points_price"));
+                catalogItem.setRating(rs.getFloat("rating"));
+                catalogItem.setSku(rs.getString("sku"));
+                catalogItem.setWeight(rs.getFloat("weight"));
+                catalogItem.setWidth(rs.getFloat("width"));
+                catalogItem.setHeight(rs.getFloat("height"));
+                catalogItem.setDepth(rs.getFloat("depth"));
+                catalogItem.setThumbnailUrl(imageUrlSigner == null ? rs.getString("thumbnail_url")
+                                                                   : imageUrlSigner.sign(rs.getString("thumbnail_file")));
+
+                items.put(catalogItem.getId(), catalogItem);
+            }
+        }
+
+        return items;
+    }
+
+    @Override
+    protected void connectionSetup(Connection connection) throws SQLException {
+        super.connectionSetup(connection);
+        if (imageUrlSigner != null) {
+            itemsStmt = connection.prepareStatement("select ci.*, img.filename thumbnail_file from xpoints.catalog_items ci left outer join xpoints.images img on ci.thumbnail_id = img.id where ci.id = any(?)");
+            imagesStmt = connection.prepareStatement("select ci.item_id, ci.image_id, img.filename image_file from xpoints.catalog_images ci inner join xpoints.images img on img.id = ci.image_id where ci.item_id = any(?) order by ci.item_id, ci.image_id");
+            return;
+        }
+
+        itemsStmt = connection.prepareStatement("select ci.*, img.presigned_url thumbnail_url from xpoints.catalog_items ci left outer join xpoints.image_urls img on ci.thumbnail_id = img.image_id and img.region = ? where ci.id = any(?)");
+        imagesStmt = connection.prepareStatement("select ci.item_id, ci.image_id, img.presigned_url image_url from xpoints.catalog_images ci inner join xpoints.image_urls img on img.image_id = ci.image_id and img.region = ? where ci.item_id = any(?) order by ci.item_id, ci.image_id");
+    }
+
+    @Override
+    protected void close() {
+        DatabaseUtil.closeQuietly(itemsStmt);
+        DatabaseUtil.closeQuietly(imagesStmt);
+        super.close();
+    }
+}
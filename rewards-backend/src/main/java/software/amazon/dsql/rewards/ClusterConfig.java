@@ -22,20 +22,36 @@ import software.amazon.awssdk.services.dsql.DsqlClient;
 
 
 public class ClusterConfig {
+    /**
+     * Which kind of work a connection is for. Read-only and read-write connections use different database users,
+     * and so different connection pools.
+     */
+    public enum Profile {
+        READ_ONLY,
+        READ_WRITE
+    }
+
     private final String endpoint;
     private final Region region;
     private final DsqlClient apiClient;
     private final String jdbcUrl;
     private final String databaseName;
     private final String databaseUsername;
+    private final Profile profile;
 
 
     public ClusterConfig(String endpoint, Region region, DsqlClient apiClient, String databaseName, String databaseUsername) {
+        this(endpoint, region, apiClient, databaseName, databaseUsername, Profile.READ_WRITE);
+    }
+
+    public ClusterConfig(String endpoint, Region region, DsqlClient apiClient, String databaseName, String databaseUsername,
+                         Profile profile) {
         this.region = region;
         this.apiClient = apiClient;
         this.databaseName = databaseName;
         this.databaseUsername = databaseUsername;
         this.endpoint = endpoint;
+        this.profile = profile;
         this.jdbcUrl = String.format("jdbc:postgresql://%s:5432/%s", endpoint, databaseName);
     }
 
@@ -62,4 +78,8 @@ public class ClusterConfig {
     public String getDatabaseUsername() {
         return databaseUsername;
     }
+
+    public Profile getProfile() {
+        return profile;
+    }
 }
@@ -0,0 +1,325 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import org.postgresql.jdbc.SslMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A bounded pool of DSQL connections. Every new physical connection is opened with a fresh IAM auth token,
+ * is retired before DSQL's one hour connection limit, and is validated when borrowed after sitting idle.
+ * Pools are shared by all handlers in the JVM that connect to the same cluster as the same user with the same
+ * {@link ClusterConfig.Profile}, so read-only work never waits on connections held by writers or the reverse.
+ */
+public class ConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+    private static final Map<String, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+    private static final long DEFAULT_MAX_LIFETIME_MILLIS = 55 * 60 * 1000L;  // 5 minutes less than DSQL's connection timeout
+    private static final long MAX_LIFETIME_JITTER_MILLIS = 2 * 60 * 1000L;    // Spread out rotation of connections opened together
+    private static final int DEFAULT_MAX_SIZE = 4;
+    private static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 10 * 1000L;
+    private static final long DEFAULT_VALIDATION_IDLE_MILLIS = 1000L;
+    private static final int VALIDATION_TIMEOUT_SECS = 5;
+
+    private static final double JITTER_BASE = 20d;
+    private static final double JITTER_MAX = 1000 * 5d;
+    private static final int MAX_CONNECT_ATTEMPTS = 5;
+
+    private final ClusterConfig clusterConfig;
+    private final int maxSize;
+    private final long maxLifetimeMillis;
+    private final long borrowTimeoutMillis;
+    private final long validationIdleMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int totalConnections;
+    private boolean closed;
+
+
+    public ConnectionPool(ClusterConfig clusterConfig, int maxSize, long maxLifetimeMillis, long borrowTimeoutMillis,
+                          long validationIdleMillis) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Pool size must be at least 1");
+
+        this.clusterConfig = clusterConfig;
+        this.maxSize = maxSize;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationIdleMillis = validationIdleMillis;
+    }
+
+    /**
+     * Returns the JVM-wide pool for the given cluster, database user and profile, creating it on first use. Sizing
+     * is taken from the DB_POOL_MAX_SIZE, DB_POOL_MAX_LIFETIME_MINUTES, DB_POOL_BORROW_TIMEOUT_MILLIS and
+     * DB_POOL_VALIDATION_IDLE_MILLIS environment variables when they are set. DB_RO_POOL_MAX_SIZE and
+     * DB_RW_POOL_MAX_SIZE override the size of read-only and read-write pools respectively.
+     *
+     * @param clusterConfig Cluster configuration
+     * @return  The shared connection pool
+     */
+    public static ConnectionPool forCluster(ClusterConfig clusterConfig) {
+        ClusterConfig.Profile profile = clusterConfig.getProfile();
+        String key = clusterConfig.getJdbcUrl() + "|" + clusterConfig.getDatabaseUsername() + "|" + profile;
+
+        return pools.computeIfAbsent(key, k -> {
+            // Never allow a lifetime at or beyond DSQL's own limit
+            long maxLifetimeMillis = Math.min(DEFAULT_MAX_LIFETIME_MILLIS,
+                    getEnvLong("DB_POOL_MAX_LIFETIME_MINUTES", DEFAULT_MAX_LIFETIME_MILLIS / 60000L) * 60 * 1000L);
+
+            String sizeVariable = profile == ClusterConfig.Profile.READ_ONLY ? "DB_RO_POOL_MAX_SIZE" : "DB_RW_POOL_MAX_SIZE";
+            int maxSize = (int) getEnvLong(sizeVariable, getEnvLong("DB_POOL_MAX_SIZE", DEFAULT_MAX_SIZE));
+            logger.info("Creating " + profile + " connection pool for " + clusterConfig.getDatabaseUsername() + " with up to " + maxSize + " connections");
+
+            return new ConnectionPool(clusterConfig,
+                    maxSize,
+                    maxLifetimeMillis,
+                    getEnvLong("DB_POOL_BORROW_TIMEOUT_MILLIS", DEFAULT_BORROW_TIMEOUT_MILLIS),
+                    getEnvLong("DB_POOL_VALIDATION_IDLE_MILLIS", DEFAULT_VALIDATION_IDLE_MILLIS));
+        });
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if none is idle and the pool is not full. Idle
+     * connections past their lifetime or failing validation are discarded. The caller must close the returned
+     * connection to give it back.
+     *
+     * @return  A usable pooled connection
+     * @throws SQLException If no connection could be opened or none became available in time
+     */
+    public PooledConnection borrow() throws SQLException {
+        return borrow(0L);
+    }
+
+    /**
+     * Borrows a connection that will stay usable for at least the given time. Idle connections closer than that
+     * to the end of their lifetime are closed rather than handed out.
+     *
+     * @param minRemainingMillis    Minimum remaining lifetime of the returned connection
+     * @return  A usable pooled connection
+     * @throws SQLException If no connection could be opened or none became available in time
+     */
+    public PooledConnection borrow(long minRemainingMillis) throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+
+        while (true) {
+            PooledConnection pooled = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                while (pooled == null && !create) {
+                    if (closed)
+                        throw new SQLException("Connection pool is closed", "08003");
+
+                    pooled = idle.pollFirst();
+                    if (pooled == null) {
+                        if (totalConnections < maxSize) {
+                            totalConnections++;
+                            create = true;
+                        } else {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0)
+                                throw new SQLException("Timed out waiting for a pooled connection", "08001");
+                            try {
+                                available.awaitNanos(remaining);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new SQLException("Interrupted waiting for a pooled connection", "08001", e);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    return open();
+                } catch (SQLException | RuntimeException e) {
+                    discarded();
+                    throw e;
+                }
+            }
+
+            if (pooled.getRemainingLifetimeMillis() > minRemainingMillis && isUsable(pooled)) {
+                return pooled;
+            }
+
+            pooled.closePhysical();
+            discarded();
+        }
+    }
+
+    /**
+     * Returns a connection to the pool. Any open transaction is rolled back. Broken or expired connections are
+     * closed instead of being made available again.
+     *
+     * @param pooled    The connection being returned
+     */
+    void release(PooledConnection pooled) {
+        Connection conn = pooled.getConnection();
+
+        if (!pooled.isBroken() && !pooled.isExpired()) {
+            try {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                pooled.markBroken();
+            }
+        }
+
+        lock.lock();
+        try {
+            if (!closed && !pooled.isBroken() && !pooled.isExpired()) {
+                pooled.setLastReleasedTime(System.currentTimeMillis());
+                idle.addFirst(pooled);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        pooled.closePhysical();
+        discarded();
+    }
+
+    /**
+     * Closes all idle connections and stops handing out new ones. Borrowed connections are closed when returned.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (PooledConnection pooled : idle) {
+                pooled.closePhysical();
+                totalConnections--;
+            }
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ClusterConfig getClusterConfig() {
+        return clusterConfig;
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        if (pooled.isExpired())
+            return false;
+
+        if (System.currentTimeMillis() - pooled.getLastReleasedTime() < validationIdleMillis)
+            return true;
+
+        try {
+            return pooled.getConnection().isValid(VALIDATION_TIMEOUT_SECS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discarded() {
+        lock.lock();
+        try {
+            totalConnections--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Properties props = new Properties();
+
+        // Set user for the connection
+        props.setProperty("user", clusterConfig.getDatabaseUsername());
+
+        // Note that verify-full does not work, only allow, prefer, require and verify-ca are supported.
+        props.setProperty("sslmode", SslMode.REQUIRE.name());
+
+        // Send JDBC batches of inserts as multi-row inserts, one round trip per batch
+        props.setProperty("reWriteBatchedInserts", "true");
+
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            if (attempt > 1)
+                backoff(attempt);
+
+            // Every physical connection gets its own IAM auth token as the password
+            props.setProperty("password", DsqlLib.getPasswordToken(clusterConfig));
+
+            Connection conn = null;
+            try {
+                conn = DriverManager.getConnection(clusterConfig.getJdbcUrl(), props);
+                String sessionId = DsqlLib.getSessionId(conn);
+
+                long lifetime = maxLifetimeMillis - (long) (Math.random() * Math.min(MAX_LIFETIME_JITTER_MILLIS, maxLifetimeMillis / 10));
+                return new PooledConnection(this, conn, sessionId, lifetime);
+            } catch (SQLException e) {
+                DatabaseUtil.closeQuietly(conn);
+                if (attempt == MAX_CONNECT_ATTEMPTS || !DsqlLib.isConcurrencyConflict(e)) {
+                    logger.error("Failing at attempt: " + attempt + " with SQL State " + e.getSQLState(), e);
+                    throw e;
+                } else {
+                    logger.warn("Concurrency collision on attempt " + attempt);
+                }
+            }
+        }
+    }
+
+    private static long getEnvLong(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value != null) {
+            try {
+                long parsed = Long.parseLong(value);
+                if (parsed > 0)
+                    return parsed;
+            } catch (NumberFormatException ignored) {} // Just take the default value
+        }
+
+        return defaultValue;
+    }
+
+    private static void backoff(int attempt) {
+        long duration = (long) (Math.min(JITTER_MAX, JITTER_BASE * Math.pow(2.0d, attempt)) * Math.random());
+        try {Thread.sleep(duration);} catch (InterruptedException ignored) {}
+    }
+}
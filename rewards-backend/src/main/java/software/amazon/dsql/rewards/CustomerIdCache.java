@@ -0,0 +1,106 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * A bounded cache of username to customer ID mappings. Customer IDs never change for a username, so hits are
+ * kept for a long time. Misses are cached too, but only briefly, so a newly registered customer is found soon.
+ */
+public class CustomerIdCache {
+    private static final long DEFAULT_TTL_MILLIS = 60 * 60 * 1000L;
+    private static final long DEFAULT_NEGATIVE_TTL_MILLIS = 30 * 1000L;
+    private static final int DEFAULT_MAX_SIZE = 100_000;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final int maxSize;
+
+
+    public CustomerIdCache() {
+        this(DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS, DEFAULT_MAX_SIZE);
+    }
+
+    public CustomerIdCache(long ttlMillis, long negativeTtlMillis, int maxSize) {
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the customer ID for the username, calling the loader on a miss or once the cached entry expires.
+     *
+     * @param username  The customer's username
+     * @param loader    Looks the customer ID up in the database, returning null if there is no such customer
+     * @return  The customer ID, or null if the customer does not exist
+     * @throws SQLException For database errors from the loader
+     */
+    public UUID get(String username, Loader loader) throws SQLException {
+        if (username == null)
+            return null;
+
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(username);
+        if (entry != null && now < entry.expiresAt()) {
+            return entry.customerId();
+        }
+
+        UUID customerId = loader.load(username);
+
+        if (entries.size() >= maxSize) {
+            evict(now);
+        }
+        entries.put(username, new Entry(customerId, now + (customerId == null ? negativeTtlMillis : ttlMillis)));
+
+        return customerId;
+    }
+
+    public void invalidate(String username) {
+        if (username != null)
+            entries.remove(username);
+    }
+
+    private void evict(long now) {
+        entries.values().removeIf(e -> now >= e.expiresAt());
+
+        // Still full of live entries, so drop an arbitrary tenth of them
+        Iterator<Entry> it = entries.values().iterator();
+        int toRemove = entries.size() - (maxSize * 9 / 10);
+        while (toRemove-- > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Looks up a customer ID in the database.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        UUID load(String username) throws SQLException;
+    }
+
+    private record Entry(UUID customerId, long expiresAt) {}
+}
@@ -17,17 +17,41 @@
  */
 package software.amazon.dsql.rewards;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dsql.DsqlUtilities;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public abstract class DsqlLib {
+    private static final Logger logger = LoggerFactory.getLogger(DsqlLib.class);
+
     private final static String DSQL_ADMIN_USER = "admin";
+    private final static long DEFAULT_TOKEN_EXPIRY_SECS = 15 * 60L;
+    private final static double TOKEN_REFRESH_FRACTION = 0.75d;  // Refresh in the background after 75% of the token's life
+    private final static double TOKEN_STALE_FRACTION = 0.9d;     // Stop handing out a token after 90% of its life
+
+    private final static AwsCredentialsProvider credentialsProvider = DefaultCredentialsProvider.create();
+    private final static Map<Region, DsqlUtilities> utilities = new ConcurrentHashMap<>();
+    private final static Map<TokenKey, CachedToken> tokens = new ConcurrentHashMap<>();
+    private final static Map<TokenKey, Boolean> refreshing = new ConcurrentHashMap<>();
+    private final static ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "dsql-token-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
 
 
     /**
@@ -37,25 +61,80 @@ public abstract class DsqlLib {
      * @return optional password token
      */
     public static String getPasswordToken(ClusterConfig config) {
-        return getPasswordToken(config, 30L, false);
+        return getPasswordToken(config, DEFAULT_TOKEN_EXPIRY_SECS, false);
     }
 
     /**
-     * Tries to generate a password token for given cluster endpoint and region
+     * Returns a password token for given cluster endpoint and region. Tokens are cached per endpoint, region,
+     * user and admin flag, and are regenerated in the background once most of their lifetime has passed, so
+     * callers normally never wait on token signing.
+     *
      * @param config Cluster configuration
      * @param expiresInSecs The duration of the token before expiration
      * @return optional password token
      */
     public static String getPasswordToken(ClusterConfig config, Long expiresInSecs, boolean isAdmin) {
-        DsqlUtilities utilities = DsqlUtilities.builder()
-                .region(config.getRegion())
-                .credentialsProvider(DefaultCredentialsProvider.create()).build();
+        boolean admin = isAdmin || DSQL_ADMIN_USER.equals(config.getDatabaseUsername());
+        long expirySecs = expiresInSecs == null || expiresInSecs <= 0 ? DEFAULT_TOKEN_EXPIRY_SECS : expiresInSecs;
+        TokenKey key = new TokenKey(config.getEndpoint(), config.getRegion(), config.getDatabaseUsername(), admin, expirySecs);
+
+        long now = System.currentTimeMillis();
+        CachedToken cached = tokens.get(key);
+        if (cached != null && now < cached.staleAt()) {
+            if (now >= cached.refreshAt()) {
+                refreshAsync(key);
+            }
+            return cached.token();
+        }
 
-        if (isAdmin || DSQL_ADMIN_USER.equals(config.getDatabaseUsername())) {
-            return utilities.generateDbConnectAdminAuthToken(builder -> builder.hostname(config.getEndpoint()));
+        return refresh(key).token();
+    }
+
+    /**
+     * Drops every cached token, so the next request for each signs a new one. Used by the token benchmarks to
+     * measure cold fetches.
+     */
+    static void clearTokenCache() {
+        tokens.clear();
+    }
+
+    private static CachedToken refresh(TokenKey key) {
+        DsqlUtilities dsqlUtilities = utilities.computeIfAbsent(key.region(), region -> DsqlUtilities.builder()
+                .region(region)
+                .credentialsProvider(credentialsProvider).build());
+
+        long issued = System.currentTimeMillis();
+        Duration expiresIn = Duration.ofSeconds(key.expiresInSecs());
+
+        String token;
+        if (key.admin()) {
+            token = dsqlUtilities.generateDbConnectAdminAuthToken(builder -> builder.hostname(key.endpoint()).expiresIn(expiresIn));
+        } else {
+            token = dsqlUtilities.generateDbConnectAuthToken(builder -> builder.hostname(key.endpoint()).expiresIn(expiresIn));
         }
 
-        return utilities.generateDbConnectAuthToken(builder -> builder.hostname(config.getEndpoint()));
+        long lifetimeMillis = expiresIn.toMillis();
+        CachedToken cached = new CachedToken(token,
+                issued + (long) (lifetimeMillis * TOKEN_REFRESH_FRACTION),
+                issued + (long) (lifetimeMillis * TOKEN_STALE_FRACTION));
+        tokens.put(key, cached);
+
+        return cached;
+    }
+
+    private static void refreshAsync(TokenKey key) {
+        if (refreshing.putIfAbsent(key, Boolean.TRUE) != null)
+            return;
+
+        refresher.execute(() -> {
+            try {
+                refresh(key);
+            } catch (Exception e) {
+                logger.warn("Unable to refresh auth token for " + key.endpoint(), e);
+            } finally {
+                refreshing.remove(key);
+            }
+        });
     }
 
 
@@ -92,4 +171,8 @@ public abstract class DsqlLib {
 
         return e.getSQLState().startsWith("08");
     }
+
+    private record TokenKey(String endpoint, Region region, String username, boolean admin, long expiresInSecs) {}
+
+    private record CachedToken(String token, long refreshAt, long staleAt) {}
 }
@@ -31,6 +31,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.UUID;
 
 
 /**
@@ -42,7 +43,7 @@ public class GetBalanceFunction extends BaseRewardsFunction implements RequestHa
     private PreparedStatement statement;
 
     public GetBalanceFunction() {
-        super();
+        super(ClusterConfig.Profile.READ_ONLY);
         try {
             getConnection(false);
         } catch (SQLException e) {
@@ -79,31 +80,23 @@ public class GetBalanceFunction extends BaseRewardsFunction implements RequestHa
     }
 
     private long process(String username) {
-        long balance = 0;
+        return inReadTransaction(conn -> {
+            UUID customerId = getCustomerId(username);
+            if (customerId == null) {
+                return 0L;
+            }
 
-        try {
-            getConnection(false);
-            statement.setString(1, username);
+            statement.setObject(1, customerId);
             try (ResultSet rs = statement.executeQuery()) {
-                if (rs.next()) {
-                    balance = rs.getLong("points_balance");
-                }
+                return rs.next() ? rs.getLong("points_balance") : 0L;
             }
-        } catch (SQLException e) {
-            logger.error("SESSION ID:  {}", getSessionId());
-            logger.error("ERROR CODE:  {}", e.getErrorCode());
-            logger.error("SQL STATE:   {}", e.getSQLState());
-            logger.error("Database error", e);
-            throw new RuntimeException(e);
-        }
-
-        return balance;
+        }).value();
     }
 
     @Override
     protected void connectionSetup(Connection connection) throws SQLException {
         super.connectionSetup(connection);
-        statement = connection.prepareStatement("select points_balance from xpoints.points_balances bal inner join xpoints.customers c on bal.customer_id = c.id where username = ?");
+        statement = connection.prepareStatement("select points_balance from xpoints.points_balances where customer_id = ?");
     }
 
     @Override
@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import software.amazon.dsql.rewards.model.CatalogImage;
 import software.amazon.dsql.rewards.model.CatalogItem;
 
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -38,10 +39,17 @@ import java.util.UUID;
 public class GetCatalogItemFunction extends BaseRewardsFunction implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     private static final Logger logger = LoggerFactory.getLogger(GetCatalogItemFunction.class);
 
+    private static final Gson gson = new Gson();
+
+    // Serialized item responses. Items are only edited by the data load and image URLs are refreshed hours
+    // before they expire, so a short time to live is enough to pick up either.
+    private static final ResponseCache responseCache = new ResponseCache(10_000, 60 * 1000L);
+
+    private final ImageUrlSigner imageUrlSigner = ImageUrlSigner.isOnDemand() ? ImageUrlSigner.getInstance() : null;
     private PreparedStatement statement;
 
     public GetCatalogItemFunction() {
-        super();
+        super(ClusterConfig.Profile.READ_ONLY);
 
         try {
             getConnection(false);
@@ -58,14 +66,21 @@ public class GetCatalogItemFunction extends BaseRewardsFunction implements Reque
 
         try {
             if (event.getPathParameters() != null && event.getPathParameters().containsKey("item_id")) {
-                UUID userId = UUID.fromString(event.getPathParameters().get("item_id"));
-                CatalogItem item = process(userId);
+                UUID itemId = UUID.fromString(event.getPathParameters().get("item_id"));
+                String key = itemId.toString();
+
+                ResponseCache.CachedResponse cached = responseCache.get(key, 0L);
+                if (cached == null) {
+                    CatalogItem item = process(itemId);
+                    if (item != null) {
+                        cached = responseCache.put(key, 0L, gson.toJson(item));
+                    }
+                }
 
-                if (item == null) {
+                if (cached == null) {
                     responseEvent.setStatusCode(404);
                 } else {
-                    Gson gson = new Gson();
-                    responseEvent.setBody(gson.toJson(item));
+                    cached.writeTo(event, responseEvent);
                     responseEvent.setStatusCode(200);
                 }
             } else {
@@ -88,9 +103,12 @@ public class GetCatalogItemFunction extends BaseRewardsFunction implements Reque
         try {
             getConnection(false);
 
-            statement.setString(1, getCurrentRegion().id());
-            statement.setString(2, getCurrentRegion().id());
-            statement.setObject(3, itemId);
+            int param = 1;
+            if (imageUrlSigner == null) {
+                statement.setString(param++, getCurrentRegion().id());
+                statement.setString(param++, getCurrentRegion().id());
+            }
+            statement.setObject(param, itemId);
 
             try (ResultSet rs = statement.executeQuery()) {
                 if (rs.next()) {
@@ -107,18 +125,26 @@ public class GetCatalogItemFunction extends BaseRewardsFunction implements Reque
                     catalogItem.setWidth(rs.getFloat("width"));
                     catalogItem.setHeight(rs.getFloat("height"));
                     catalogItem.setDepth(rs.getFloat("depth"));
-                    catalogItem.setThumbnailUrl(rs.getString("thumbnail_url"));
-
-                    do {
-                        if (rs.getString("image_url") != null) {
+                    catalogItem.setThumbnailUrl(imageUrlSigner == null ? rs.getString("thumbnail_url")
+                                                                       : imageUrlSigner.sign(rs.getString("thumbnail_file")));
+
+                    // Image ids and URLs, or file names to sign, come back as two arrays in the same order, null if
+                    // there are no images
+                    Array imageIds = rs.getArray("image_ids");
+                    Array imageUrls = rs.getArray(imageUrlSigner == null ? "image_urls" : "image_files");
+                    if (imageIds != null && imageUrls != null) {
+                        Object[] ids = (Object[]) imageIds.getArray();
+                        Object[] urls = (Object[]) imageUrls.getArray();
+
+                        for (int i = 0; i < ids.length; i++) {
                             CatalogImage image = new CatalogImage();
 
-                            image.setId((UUID) rs.getObject("image_id"));
-                            image.setImageUrl(rs.getString("image_url"));
+                            image.setId((UUID) ids[i]);
+                            image.setImageUrl(imageUrlSigner == null ? (String) urls[i] : imageUrlSigner.sign((String) urls[i]));
 
                             catalogItem.addImage(image);
                         }
-                    } while (rs.next());
+                    }
                 }
             }
         } catch (SQLException e) {
@@ -135,7 +161,22 @@ public class GetCatalogItemFunction extends BaseRewardsFunction implements Reque
     @Override
     protected void connectionSetup(Connection connection) throws SQLException {
         super.connectionSetup(connection);
-        statement = connection.prepareStatement("select ci.*, img.presigned_url thumbnail_url, ermerg.image_id, ermerg.presigned_url image_url from xpoints.catalog_items ci left outer join xpoints.image_urls img on ci.thumbnail_id = img.image_id and img.region = ? left outer join (select ci.item_id, ci.image_id, img.presigned_url from xpoints.catalog_images ci inner join xpoints.image_urls img on img.image_id = ci.image_id and img.region = ?) ermerg on ci.id = ermerg.item_id where ci.id = ?");
+        // Item columns are returned once, with the item's images aggregated into arrays by a single lateral join
+        // rather than joined as rows
+        if (imageUrlSigner != null) {
+            statement = connection.prepareStatement("select ci.*, img.filename thumbnail_file, imgs.image_ids, imgs.image_files " +
+                    "from xpoints.catalog_items ci left outer join xpoints.images img on ci.thumbnail_id = img.id " +
+                    "left join lateral (select array_agg(cim.image_id order by cim.image_id) image_ids, array_agg(i.filename order by cim.image_id) image_files " +
+                    "from xpoints.catalog_images cim inner join xpoints.images i on i.id = cim.image_id where cim.item_id = ci.id) imgs on true " +
+                    "where ci.id = ?");
+            return;
+        }
+
+        statement = connection.prepareStatement("select ci.*, img.presigned_url thumbnail_url, imgs.image_ids, imgs.image_urls " +
+                "from xpoints.catalog_items ci left outer join xpoints.image_urls img on ci.thumbnail_id = img.image_id and img.region = ? " +
+                "left join lateral (select array_agg(cim.image_id order by cim.image_id) image_ids, array_agg(iu.presigned_url order by cim.image_id) image_urls " +
+                "from xpoints.catalog_images cim inner join xpoints.image_urls iu on iu.image_id = cim.image_id and iu.region = ? where cim.item_id = ci.id) imgs on true " +
+                "where ci.id = ?");
     }
 
     @Override
@@ -26,15 +26,22 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.dsql.rewards.catalog.CatalogCursor;
+import software.amazon.dsql.rewards.catalog.CatalogFilter;
+import software.amazon.dsql.rewards.catalog.CatalogPage;
+import software.amazon.dsql.rewards.catalog.CatalogSnapshot;
+import software.amazon.dsql.rewards.catalog.CatalogStore;
 import software.amazon.dsql.rewards.model.CatalogItem;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 
@@ -45,16 +52,35 @@ public class GetCatalogItemListFunction extends BaseRewardsFunction implements R
     private final List<String> sortOrders = Arrays.asList("asc", "desc");
     private final List<String> categories = Arrays.asList("Books", "Electronics", "Clothing", "Home", "Toys", "Sports");
 
+    private static final Gson gson = new Gson();
+    private static final String EMPTY_RESPONSE = toJson(new CatalogPage(List.of(), null, null));
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 500;
+
+    // Serialized list responses, rebuilt whenever the catalog snapshot changes
+    private static final ResponseCache responseCache = new ResponseCache(256, 5 * 60 * 1000L);
+
+    // Serve the catalog from memory unless CATALOG_SNAPSHOT is set to false
+    private final boolean useSnapshot = !"false".equalsIgnoreCase(System.getenv("CATALOG_SNAPSHOT"));
+    private final Map<String, PreparedStatement> listStatements = new HashMap<>();
+    private final CatalogStore catalogStore;
+    private final ImageUrlSigner imageUrlSigner = ImageUrlSigner.isOnDemand() ? ImageUrlSigner.getInstance() : null;
 
     public GetCatalogItemListFunction() {
-        super();
+        super(ClusterConfig.Profile.READ_ONLY);
 
-        try {
-            getConnection(false);
-        } catch (SQLException e) {
-            logger.error("Error initializing database connection.", e);
-            throw new RuntimeException("Error intializing database connection", e);
+        // The snapshot reads through the connection pool, so only the database listing needs a connection here
+        if (!useSnapshot) {
+            try {
+                getConnection(false);
+            } catch (SQLException e) {
+                logger.error("Error initializing database connection.", e);
+                throw new RuntimeException("Error intializing database connection", e);
+            }
         }
+
+        catalogStore = useSnapshot ? CatalogStore.forRegion(getConnectionPool(), getCurrentRegion().id()) : null;
     }
 
     @Override
@@ -63,23 +89,26 @@ public class GetCatalogItemListFunction extends BaseRewardsFunction implements R
         setCorsHeaders(responseEvent);
 
         try {
-            Gson gson = new Gson();
-            JsonObject data = new JsonObject();
-
             String sortField = "name";
             String sortOrder = "asc";
             String category = null;
+            String cursor = null;
+            int limit = DEFAULT_PAGE_SIZE;
+            CatalogFilter filter = CatalogFilter.parse(event.getQueryStringParameters());
 
             if (event.getQueryStringParameters() != null) {
                 sortField = getValue(event.getQueryStringParameters().get("sortBy"), sortFields, sortFields.getFirst());
                 sortOrder = getValue(event.getQueryStringParameters().get("sortOrder"), sortOrders, sortOrders.getFirst());
+                cursor = event.getQueryStringParameters().get("cursor");
+
+                if (event.getQueryStringParameters().containsKey("limit")) {
+                    limit = Math.clamp(Integer.parseInt(event.getQueryStringParameters().get("limit")), 1, MAX_PAGE_SIZE);
+                }
 
                 if (event.getQueryStringParameters().containsKey("category")) {
                     category = event.getQueryStringParameters().get("category");
                     if (!categories.contains(category)) {
-                        List<CatalogItem> items = new ArrayList<>();
-                        data.add("products", gson.toJsonTree(items));
-                        responseEvent.setBody(gson.toJson(data));
+                        responseEvent.setBody(EMPTY_RESPONSE);
                         responseEvent.setStatusCode(200);
                         return responseEvent;
                     }
@@ -89,18 +118,17 @@ public class GetCatalogItemListFunction extends BaseRewardsFunction implements R
             if (event.getPathParameters() != null && event.getPathParameters().containsKey("category")) {
                 category = event.getPathParameters().get("category");
                 if (!categories.contains(category)) {
-                    List<CatalogItem> items = new ArrayList<>();
-                    data.add("products", gson.toJsonTree(items));
-                    responseEvent.setBody(gson.toJson(data));
+                    responseEvent.setBody(EMPTY_RESPONSE);
                     responseEvent.setStatusCode(200);
                     return responseEvent;
                 }
             }
 
-            List<CatalogItem> items = process(sortField, sortOrder, category);
-            data.add("products", gson.toJsonTree(items));
-            responseEvent.setBody(gson.toJson(data));
+            process(sortField, sortOrder, category, filter, cursor, limit).writeTo(event, responseEvent);
             responseEvent.setStatusCode(200);
+        } catch (IllegalArgumentException e) {  // Bad limit, cursor or filter
+            responseEvent.setBody(makeErrorJson(e.getMessage()));
+            responseEvent.setStatusCode(400);
         } catch (JsonSyntaxException e) {
             logger.error("Invalid JSON", e);
             responseEvent.setStatusCode(400);
@@ -109,25 +137,67 @@ public class GetCatalogItemListFunction extends BaseRewardsFunction implements R
         return responseEvent;
     }
 
-    private List<CatalogItem> process(String sortField, String sortOrder, String category) {
-        List<CatalogItem> catalogItems = new ArrayList<>();
-        String regionStr = getCurrentRegion().toString();
+    private ResponseCache.CachedResponse process(String sortField, String sortOrder, String category, CatalogFilter filter,
+                                                 String cursorToken, int limit) {
+        String key = sortField + "|" + sortOrder + "|" + category + "|" + filter + "|" + limit + "|" + cursorToken;
+        CatalogCursor cursor = cursorToken == null ? null : CatalogCursor.decode(cursorToken, sortField);
 
-        String categoryClause = "";
-        if (category != null) {
-            categoryClause = "where category = '" + category + "'";
+        if (catalogStore == null) {
+            if (filter != null)
+                throw new IllegalArgumentException("Attribute filters are only supported on the catalog snapshot");
+
+            // Without a snapshot there is no version to go by, so responses only live for the cache TTL
+            return responseCache.get(key, 0L, () -> toJson(processFromDatabase(sortField, sortOrder, category, cursor, limit)));
         }
 
-        String query = String.format("select ci.*, img.presigned_url thumbnail_url " +
-                "from xpoints.catalog_items ci left outer join xpoints.image_urls img on ci.thumbnail_id = img.image_id" +
-                " and img.region = '%s' %s order by %s %s", regionStr, categoryClause, sortField, sortOrder);
+        try {
+            CatalogSnapshot snapshot = catalogStore.getSnapshot();
+            return responseCache.get(key, snapshot.getVersion(),
+                    () -> toJson(snapshot.page(sortField, sortOrder, category, filter, cursor, limit)));
+        } catch (SQLException e) {
+            logger.error("ERROR CODE:  {}", e.getErrorCode());
+            logger.error("SQL STATE:   {}", e.getSQLState());
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toJson(CatalogPage page) {
+        JsonObject data = new JsonObject();
+        data.add("products", gson.toJsonTree(page.items()));
+        if (page.nextCursor() != null) {
+            data.addProperty("nextCursor", page.nextCursor().encode());
+        }
+        if (page.facets() != null) {
+            data.add("facets", gson.toJsonTree(page.facets()));
+        }
+        return gson.toJson(data);
+    }
+
+    private CatalogPage processFromDatabase(String sortField, String sortOrder, String category, CatalogCursor cursor, int limit) {
+        List<CatalogItem> catalogItems = new ArrayList<>();
+        List<Object> sortValues = new ArrayList<>();
 
         try {
-            Connection conn = getConnection(false);
+            getConnection(false);
+
+            PreparedStatement stmt = listStatements.get(statementKey(sortField, sortOrder, category != null, cursorShape(cursor)));
 
-            try (Statement stmt = conn.createStatement();
-                ResultSet rs = stmt.executeQuery(query)) {
+            int param = 1;
+            if (imageUrlSigner == null) {
+                stmt.setString(param++, getCurrentRegion().id());
+            }
+            if (category != null) {
+                stmt.setString(param++, category);
+            }
+            if (cursor != null) {
+                if (cursor.value() != null) {
+                    stmt.setObject(param++, cursor.value());
+                }
+                stmt.setObject(param++, cursor.id());
+            }
+            stmt.setInt(param, limit + 1);  // One extra row tells whether there is another page
 
+            try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
                     CatalogItem catalogItem = new CatalogItem();
                     catalogItems.add(catalogItem);
@@ -144,7 +214,11 @@ public class GetCatalogItemListFunction extends BaseRewardsFunction implements R
                     catalogItem.setWidth(rs.getFloat("width"));
                     catalogItem.setHeight(rs.getFloat("height"));
                     catalogItem.setDepth(rs.getFloat("depth"));
-                    catalogItem.setThumbnailUrl(rs.getString("thumbnail_url"));
+                    catalogItem.setThumbnailUrl(imageUrlSigner == null ? rs.getString("thumbnail_url")
+                                                                       : imageUrlSigner.sign(rs.getString("thumbnail_file")));
+
+                    // The item holds 0 for a missing price or rating, but the query sorts it as null
+                    sortValues.add(sortValue(rs, sortField));
                 }
             }
         } catch (SQLException e) {
@@ -154,9 +228,115 @@ public class GetCatalogItemListFunction extends BaseRewardsFunction implements R
             throw new RuntimeException(e);
         }
 
-        return catalogItems;
+        if (catalogItems.size() > limit) {
+            catalogItems = catalogItems.subList(0, limit);
+            CatalogCursor next = new CatalogCursor(sortField, sortValues.get(limit - 1), catalogItems.getLast().getId());
+            return new CatalogPage(catalogItems, next, null);
+        }
+
+        return new CatalogPage(catalogItems, null, null);
+    }
+
+    /**
+     * Reads the sort field of the current row as the cursor value type, keeping nulls.
+     */
+    private static Object sortValue(ResultSet rs, String sortField) throws SQLException {
+        if (rs.getObject(sortField) == null)
+            return null;
+
+        return switch (sortField) {
+            case "name" -> rs.getString(sortField);
+            case "usd_price" -> rs.getBigDecimal(sortField);
+            case "points_price" -> rs.getLong(sortField);
+            case "rating" -> rs.getFloat(sortField);
+            default -> throw new IllegalArgumentException("Unsupported sort field " + sortField);
+        };
+    }
+
+    /**
+     * Prepares one parameterized listing query per sort field, sort order, category filter and cursor shape, so
+     * each request only binds values to a statement the server has already parsed.
+     */
+    @Override
+    protected void connectionSetup(Connection connection) throws SQLException {
+        super.connectionSetup(connection);
+
+        if (!useSnapshot) {
+            closeListStatements();
+            for (String sortField : sortFields) {
+                for (String sortOrder : sortOrders) {
+                    for (boolean hasCategory : new boolean[] {false, true}) {
+                        for (CursorShape cursorShape : CursorShape.values()) {
+                            listStatements.put(statementKey(sortField, sortOrder, hasCategory, cursorShape),
+                                    connection.prepareStatement(listSql(sortField, sortOrder, hasCategory, cursorShape, imageUrlSigner != null)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void close() {
+        closeListStatements();
+        super.close();
     }
 
+    private void closeListStatements() {
+        for (PreparedStatement stmt : listStatements.values()) {
+            DatabaseUtil.closeQuietly(stmt);
+        }
+        listStatements.clear();
+    }
+
+    /**
+     * Builds the listing query for one statement shape. Only the sort column, which comes from a fixed list, is
+     * part of the SQL text; the region, category, cursor and limit are all parameters. With on-demand image URLs
+     * the thumbnail's file name is selected instead of its stored URL, and there is no region parameter.
+     */
+    private static String listSql(String sortField, String sortOrder, boolean hasCategory, CursorShape cursorShape,
+                                  boolean onDemandImageUrls) {
+        List<String> conditions = new ArrayList<>();
+        if (hasCategory) {
+            conditions.add("ci.category = ?");
+        }
+
+        // Resume after the cursor in (sort field, id) order, where nulls sort last ascending and first descending
+        boolean desc = "desc".equals(sortOrder);
+        switch (cursorShape) {
+            case AFTER_NULL -> conditions.add(desc ? String.format("(ci.%s is not null or ci.id < ?)", sortField)
+                                                   : String.format("ci.%s is null and ci.id > ?", sortField));
+            case AFTER_VALUE -> conditions.add(desc ? String.format("(ci.%1$s, ci.id) < (?, ?)", sortField)
+                                                    : String.format("((ci.%1$s, ci.id) > (?, ?) or ci.%1$s is null)", sortField));
+            case NONE -> {}
+        }
+
+        String whereClause = conditions.isEmpty() ? "" : " where " + String.join(" and ", conditions);
+
+        // With a limit the database only has to keep the top rows while sorting rather than sort them all
+        String thumbnail = onDemandImageUrls
+                ? "select ci.*, img.filename thumbnail_file from xpoints.catalog_items ci left outer join xpoints.images img on ci.thumbnail_id = img.id"
+                : "select ci.*, img.presigned_url thumbnail_url from xpoints.catalog_items ci left outer join xpoints.image_urls img on ci.thumbnail_id = img.image_id and img.region = ?";
+        return thumbnail + whereClause +
+                String.format(" order by ci.%s %s, ci.id %s limit ?", sortField, sortOrder, sortOrder);
+    }
+
+    private static String statementKey(String sortField, String sortOrder, boolean hasCategory, CursorShape cursorShape) {
+        return sortField + "|" + sortOrder + "|" + hasCategory + "|" + cursorShape;
+    }
+
+    private static CursorShape cursorShape(CatalogCursor cursor) {
+        if (cursor == null)
+            return CursorShape.NONE;
+
+        return cursor.value() == null ? CursorShape.AFTER_NULL : CursorShape.AFTER_VALUE;
+    }
+
+    /**
+     * How a listing query resumes: from the start, after an item with a sort value, or after one without.
+     */
+    private enum CursorShape { NONE, AFTER_VALUE, AFTER_NULL }
+
     private String getValue(String str, List<String> allowed, String defaultValue) {
         if (str == null)
             return defaultValue;
@@ -24,6 +24,10 @@ import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent
 
 
 public class GetCategoriesFunction extends BaseRewardsFunction implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    public GetCategoriesFunction() {
+        super(ClusterConfig.Profile.READ_ONLY);
+    }
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
         APIGatewayProxyResponseEvent responseEvent = new APIGatewayProxyResponseEvent();
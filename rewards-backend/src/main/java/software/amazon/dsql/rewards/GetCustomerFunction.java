@@ -40,7 +40,7 @@ public class GetCustomerFunction extends BaseRewardsFunction implements RequestH
     private PreparedStatement statement;
 
     public GetCustomerFunction() {
-        super();
+        super(ClusterConfig.Profile.READ_ONLY);
         try {
             getConnection(false);
         } catch (SQLException e) {
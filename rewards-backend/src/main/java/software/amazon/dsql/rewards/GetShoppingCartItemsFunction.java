@@ -41,10 +41,11 @@ import java.util.UUID;
 public class GetShoppingCartItemsFunction extends BaseRewardsFunction implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     private static final Logger logger = LoggerFactory.getLogger(GetShoppingCartItemsFunction.class);
 
+    private final ImageUrlSigner imageUrlSigner = ImageUrlSigner.isOnDemand() ? ImageUrlSigner.getInstance() : null;
     private PreparedStatement statement;
 
     public GetShoppingCartItemsFunction() {
-        super();
+        super(ClusterConfig.Profile.READ_ONLY);
 
         try {
             getConnection(false);
@@ -83,13 +84,19 @@ public class GetShoppingCartItemsFunction extends BaseRewardsFunction implements
     }
 
     private List<ShoppingCartItem> process(String username) {
-        List<ShoppingCartItem> items = new ArrayList<>();
+        return inReadTransaction(conn -> {
+            List<ShoppingCartItem> items = new ArrayList<>();
 
-        try {
-            getConnection(false);
+            UUID customerId = getCustomerId(username);
+            if (customerId == null) {
+                return items;
+            }
 
-            statement.setString(1, getCurrentRegion().id());
-            statement.setString(2, username);
+            int param = 1;
+            if (imageUrlSigner == null) {
+                statement.setString(param++, getCurrentRegion().id());
+            }
+            statement.setObject(param, customerId);
 
             try (ResultSet rs = statement.executeQuery()) {
                 while (rs.next()) {
@@ -114,24 +121,24 @@ public class GetShoppingCartItemsFunction extends BaseRewardsFunction implements
                     catalogItem.setWidth(rs.getFloat("width"));
                     catalogItem.setHeight(rs.getFloat("height"));
                     catalogItem.setDepth(rs.getFloat("depth"));
-                    catalogItem.setThumbnailUrl(rs.getString("thumbnail_url"));
+                    catalogItem.setThumbnailUrl(imageUrlSigner == null ? rs.getString("thumbnail_url")
+                                                                       : imageUrlSigner.sign(rs.getString("thumbnail_file")));
                 }
             }
-        } catch (SQLException e) {
-            logger.error("SESSION ID:  {}", getSessionId());
-            logger.error("ERROR CODE:  {}", e.getErrorCode());
-            logger.error("SQL STATE:   {}", e.getSQLState());
-            logger.error("Database error", e);
-            throw new RuntimeException(e);
-        }
 
-        return items;
+            return items;
+        }).value();
     }
 
     @Override
     protected void connectionSetup(Connection connection) throws SQLException {
         super.connectionSetup(connection);
-        statement = connection.prepareStatement("select cart.customer_id, cart.quantity, item.* from xpoints.shopping_cart_items cart inner join xpoints.customers cust on cust.id = cart.customer_id inner join (select ci.*, img.presigned_url thumbnail_url from xpoints.catalog_items ci left outer join xpoints.image_urls img on ci.thumbnail_id = img.image_id and img.region = ?) item on cart.item_id = item.id where cust.username = ? order by item.name");
+        if (imageUrlSigner != null) {
+            statement = connection.prepareStatement("select cart.customer_id, cart.quantity, item.* from xpoints.shopping_cart_items cart inner join (select ci.*, img.filename thumbnail_file from xpoints.catalog_items ci left outer join xpoints.images img on ci.thumbnail_id = img.id) item on cart.item_id = item.id where cart.customer_id = ? order by item.name");
+            return;
+        }
+
+        statement = connection.prepareStatement("select cart.customer_id, cart.quantity, item.* from xpoints.shopping_cart_items cart inner join (select ci.*, img.presigned_url thumbnail_url from xpoints.catalog_items ci left outer join xpoints.image_urls img on ci.thumbnail_id = img.image_id and img.region = ?) item on cart.item_id = item.id where cart.customer_id = ? order by item.name");
     }
 
     @Override
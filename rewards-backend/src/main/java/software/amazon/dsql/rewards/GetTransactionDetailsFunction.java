@@ -39,10 +39,9 @@ public class GetTransactionDetailsFunction extends BaseRewardsFunction implement
     private static final Logger logger = LoggerFactory.getLogger(GetTransactionDetailsFunction.class);
 
     private PreparedStatement getTxStmt;
-    private PreparedStatement getCustStmt;
 
     public GetTransactionDetailsFunction() {
-        super();
+        super(ClusterConfig.Profile.READ_ONLY);
         try {
             getConnection(false);
         } catch (SQLException e) {
@@ -91,20 +90,10 @@ public class GetTransactionDetailsFunction extends BaseRewardsFunction implement
     }
 
     private TransactionDetails process(UUID txId, String username) {
-        TransactionDetails tx = null;
+        return inReadTransaction(conn -> {
+            TransactionDetails tx = null;
 
-        try {
-            getConnection(false);
-
-            UUID customerId;
-            getCustStmt.setString(1, username);
-            try (ResultSet rs = getCustStmt.executeQuery();) {
-                if (rs.next()) {
-                    customerId = (UUID) rs.getObject(1);
-                } else {
-                    throw new IllegalArgumentException("Customer " + username + " not found");
-                }
-            }
+            UUID customerId = requireCustomerId(username);
 
             getTxStmt.setObject(1, txId);
             getTxStmt.setObject(2, customerId);
@@ -133,27 +122,25 @@ public class GetTransactionDetailsFunction extends BaseRewardsFunction implement
                     }
                 }
             }
-        } catch (SQLException e) {
-            logger.error("SESSION ID:  {}", getSessionId());
-            logger.error("ERROR CODE:  {}", e.getErrorCode());
-            logger.error("SQL STATE:   {}", e.getSQLState());
-            logger.error("Database error", e);
-            throw new RuntimeException(e);
-        }
 
-        return tx;
+            return tx;
+        }).value();
     }
 
     @Override
     protected void connectionSetup(Connection connection) throws SQLException {
         super.connectionSetup(connection);
-        getCustStmt = connection.prepareStatement("select id from xpoints.customers where username = ?");
-        getTxStmt = connection.prepareStatement("select t.*, oi.cat_item_id, oi.unit_cnt, oi.unit_points_price, oi.item_name, oi.item_description from xpoints.transactions t left outer join (select o.tx_id, o.cat_item_id, o.unit_cnt, o.unit_points_price, ci.name item_name, ci.description item_description from xpoints.order_items o inner join xpoints.catalog_items ci on ci.id = o.cat_item_id order by ci.name) oi on t.id = oi.tx_id where t.id = ? and t.customer_id = ?");
+        // Order items carry the item's name and description from checkout. Rows written before that was the case
+        // fall back to the catalog until OrderItemBackfillFunction has filled them in.
+        getTxStmt = connection.prepareStatement("select t.*, o.cat_item_id, o.unit_cnt, o.unit_points_price, " +
+                "coalesce(o.item_name, (select ci.name from xpoints.catalog_items ci where ci.id = o.cat_item_id)) item_name, " +
+                "coalesce(o.item_description, (select ci.description from xpoints.catalog_items ci where ci.id = o.cat_item_id)) item_description " +
+                "from xpoints.transactions t left outer join xpoints.order_items o on o.tx_id = t.id " +
+                "where t.id = ? and t.customer_id = ? order by item_name");
     }
 
     @Override
     protected void close() {
-        DatabaseUtil.closeQuietly(getCustStmt);
         DatabaseUtil.closeQuietly(getTxStmt);
         super.close();
     }
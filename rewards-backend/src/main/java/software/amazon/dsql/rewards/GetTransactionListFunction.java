@@ -28,10 +28,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.dsql.rewards.model.Transaction;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.UUID;
 
@@ -39,10 +41,16 @@ import java.util.UUID;
 public class GetTransactionListFunction extends BaseRewardsFunction implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     private static final Logger logger = LoggerFactory.getLogger(GetTransactionListFunction.class);
 
-    private PreparedStatement statement;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private static final Gson gson = new Gson();
+
+    private PreparedStatement firstPageStmt;
+    private PreparedStatement nextPageStmt;
 
     public GetTransactionListFunction() {
-        super();
+        super(ClusterConfig.Profile.READ_ONLY);
         try {
             getConnection(false);
         } catch (SQLException e) {
@@ -66,6 +74,8 @@ public class GetTransactionListFunction extends BaseRewardsFunction implements R
         try {
             Instant toInstant = Instant.now();
             Instant fromInstant = toInstant.minus(30, ChronoUnit.DAYS);
+            int pageSize = DEFAULT_PAGE_SIZE;
+            PageCursor cursor = null;
 
             if (event.getQueryStringParameters() != null) {
                 if (event.getQueryStringParameters().containsKey("from")) {
@@ -75,12 +85,31 @@ public class GetTransactionListFunction extends BaseRewardsFunction implements R
                 if (event.getQueryStringParameters().containsKey("to")) {
                     toInstant = Instant.ofEpochMilli(Long.parseLong(event.getQueryStringParameters().get("to")));
                 }
+
+                try {
+                    if (event.getQueryStringParameters().containsKey("limit")) {
+                        pageSize = Math.clamp(Integer.parseInt(event.getQueryStringParameters().get("limit")), 1, MAX_PAGE_SIZE);
+                    }
+
+                    if (event.getQueryStringParameters().containsKey("cursor")) {
+                        cursor = PageCursor.decode(event.getQueryStringParameters().get("cursor"));
+                    }
+                } catch (IllegalArgumentException e) {  // Bad limit or cursor, as for the catalog listing
+                    responseEvent.setBody(makeErrorJson(e.getMessage()));
+                    responseEvent.setStatusCode(400);
+                    return responseEvent;
+                }
             }
 
-            List<Transaction> transactions = process(username, fromInstant, toInstant);
+            // Fetch one row past the page to find out whether there is another page
+            List<Transaction> transactions = process(username, fromInstant, toInstant, cursor, pageSize + 1);
 
-            Gson gson = new Gson();
             JsonObject data = new JsonObject();
+            if (transactions.size() > pageSize) {
+                transactions = transactions.subList(0, pageSize);
+                Transaction last = transactions.getLast();
+                data.addProperty("nextCursor", new PageCursor(last.getTimestamp().toInstant(), last.getId()).encode());
+            }
             data.add("transactions", gson.toJsonTree(transactions));
             responseEvent.setBody(gson.toJson(data));
             responseEvent.setStatusCode(200);
@@ -95,15 +124,37 @@ public class GetTransactionListFunction extends BaseRewardsFunction implements R
         return responseEvent;
     }
 
-    private List<Transaction> process(String username, Instant fromInstant, Instant toInstant) {
-        List<Transaction> transactions = new ArrayList<>();
-
-        try {
-            getConnection(false);
+    /**
+     * Loads one page of a customer's transactions, newest first. Pages are ordered on (tx_dt, id) so a page can
+     * start right after the last row of the previous one without an offset.
+     *
+     * @param username      Customer's username
+     * @param fromInstant   Start of the time window
+     * @param toInstant     End of the time window
+     * @param cursor        Last row of the previous page, or null for the first page
+     * @param limit         Maximum number of rows to return
+     * @return  The page of transactions
+     */
+    private List<Transaction> process(String username, Instant fromInstant, Instant toInstant, PageCursor cursor, int limit) {
+        return inReadTransaction(conn -> {
+            List<Transaction> transactions = new ArrayList<>();
+
+            UUID customerId = getCustomerId(username);
+            if (customerId == null) {
+                return transactions;
+            }
 
-            statement.setString(1, username);
+            PreparedStatement statement = cursor == null ? firstPageStmt : nextPageStmt;
+            statement.setObject(1, customerId);
             statement.setTimestamp(2, Timestamp.from(fromInstant));
             statement.setTimestamp(3, Timestamp.from(toInstant));
+            if (cursor == null) {
+                statement.setInt(4, limit);
+            } else {
+                statement.setTimestamp(4, Timestamp.from(cursor.txDt()));
+                statement.setObject(5, cursor.id());
+                statement.setInt(6, limit);
+            }
 
             try (ResultSet rs = statement.executeQuery()) {
                 while (rs.next()) {
@@ -119,26 +170,49 @@ public class GetTransactionListFunction extends BaseRewardsFunction implements R
                         transaction.setTimestamp(rs.getTimestamp("tx_dt"));
                 }
             }
-        } catch (SQLException e) {
-            logger.error("SESSION ID:  {}", getSessionId());
-            logger.error("ERROR CODE:  {}", e.getErrorCode());
-            logger.error("SQL STATE:   {}", e.getSQLState());
-            logger.error("Database error", e);
-            throw new RuntimeException(e);
-        }
 
-        return transactions;
+            return transactions;
+        }).value();
     }
 
     @Override
     protected void connectionSetup(Connection connection) throws SQLException {
         super.connectionSetup(connection);
-        statement = connection.prepareStatement("select * from xpoints.transactions tx inner join xpoints.customers c on tx.customer_id = c.id where username = ? and tx_dt >= ? and tx_dt <= ? order by tx_dt desc");
+        firstPageStmt = connection.prepareStatement("select * from xpoints.transactions where customer_id = ? and tx_dt >= ? and tx_dt <= ? order by tx_dt desc, id desc limit ?");
+        nextPageStmt = connection.prepareStatement("select * from xpoints.transactions where customer_id = ? and tx_dt >= ? and tx_dt <= ? and (tx_dt, id) < (?, ?) order by tx_dt desc, id desc limit ?");
     }
 
     @Override
     protected void close() {
-        DatabaseUtil.closeQuietly(statement);
+        DatabaseUtil.closeQuietly(firstPageStmt);
+        DatabaseUtil.closeQuietly(nextPageStmt);
         super.close();
     }
+
+    /**
+     * Position of the last transaction on a page. Handed to clients as an opaque URL safe token.
+     *
+     * @param txDt  Transaction timestamp
+     * @param id    Transaction id, which breaks ties between transactions with the same timestamp
+     */
+    record PageCursor(Instant txDt, UUID id) {
+
+        String encode() {
+            String raw = txDt.getEpochSecond() + ":" + txDt.getNano() + ":" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static PageCursor decode(String token) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+                if (parts.length != 3)
+                    throw new IllegalArgumentException("Invalid cursor");
+
+                return new PageCursor(Instant.ofEpochSecond(Long.parseLong(parts[0]), Long.parseLong(parts[1])),
+                        UUID.fromString(parts[2]));
+            } catch (IllegalArgumentException e) {  // Also covers bad Base64, numbers and UUIDs
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+        }
+    }
 }
@@ -31,18 +31,39 @@ import java.sql.*;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
+/**
+ * Presigns a URL for every catalog image and stores it per region. Signing is spread over virtual threads, and
+ * the URLs are written with batched upserts in transactions of at most {@link #CHUNK_SIZE} rows, each of which
+ * is retried on its own if it conflicts.
+ * <p>
+ * By default runs are incremental: only URLs within PRESIGN_REFRESH_THRESHOLD_PERCENT of their validity of
+ * expiring are signed again, along with images added since the high-water mark of the last run, which is kept in
+ * xpoints.job_checkpoints. Setting PRESIGN_MODE to "full" signs every image again.
+ */
 public class ImagePresignedUrlGeneratorFunction extends BaseRewardsFunction implements RequestHandler<ScheduledEvent, Void> {
     private static final Logger logger = LoggerFactory.getLogger(ImagePresignedUrlGeneratorFunction.class);
 
-    private final List<IdImageName> images = new ArrayList<>();
+    private static final int CHUNK_SIZE = 500;          // Keeps each transaction well inside DSQL's row limits
+    private static final String JOB_NAME = "image_urls";
+    private static final long HIGH_WATER_MARK_OVERLAP_MINUTES = 15;    // Catches images committed late with an earlier created time
 
     private final String BUCKET = System.getenv("IMAGE_BUCKET");
     private String IMAGE_BASE_KEY = System.getenv("IMAGE_BASE_KEY");
     private int URL_DURATION_MINUTES = 60 * 12;
+    private int REFRESH_THRESHOLD_PERCENT = 25;
+    private final boolean incremental = !"full".equalsIgnoreCase(System.getenv("PRESIGN_MODE"));
+
+    private PreparedStatement upsertStmt;
 
     public ImagePresignedUrlGeneratorFunction() {
         if (BUCKET == null)
@@ -61,46 +82,139 @@ public class ImagePresignedUrlGeneratorFunction extends BaseRewardsFunction impl
                     URL_DURATION_MINUTES = minutes;
             } catch (NumberFormatException ignored) {} // Just take the default value
         }
+
+        String threshold = System.getenv("PRESIGN_REFRESH_THRESHOLD_PERCENT");
+        if (threshold != null) {
+            try {
+                int percent = Integer.parseInt(threshold);
+                if (percent > 0 && percent <= 100)
+                    REFRESH_THRESHOLD_PERCENT = percent;
+            } catch (NumberFormatException ignored) {} // Just take the default value
+        }
     }
 
     @Override
     public Void handleRequest(ScheduledEvent scheduledEvent, Context context) {
-        process();
+        process(context);
         return null;
     }
 
-    private void process() {
-        try (Connection conn = getConnection(false)) {
-            loadImages(conn);
-            presign();
+    private void process(Context context) {
+        long start = System.currentTimeMillis();
+        String region = getCurrentRegion().id();
+
+        ImageLoad load = inTransaction(JOB_NAME, context, conn -> loadImages(conn, region)).value();
+        List<IdImageName> signed = presign(load.images());
+        saveImageUrls(signed, region, context);
 
-            conn.setAutoCommit(false);
-            saveImageUrls(conn);
-        } catch (SQLException e) {
-            logger.error("Error connecting to database", e);
-            throw new RuntimeException("Error connecting to database", e);
+        // Images that failed to sign are tried again from the same high-water mark on the next run
+        if (signed.size() == load.images().size() && load.highWaterMark() != null) {
+            inTransaction(JOB_NAME, context, conn -> saveHighWaterMark(conn, region, load.highWaterMark()));
         }
+
+        logger.info("Presigned and saved " + signed.size() + " of " + load.images().size() + " image URLs "
+                + (load.incremental() ? "incrementally" : "in full") + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Loads the images to sign. An incremental load is the images created after the last high-water mark plus
+     * those whose URL in this region is due for refresh. Without a high-water mark, or in full mode, every image
+     * is loaded.
+     */
+    private ImageLoad loadImages(Connection conn, String region) throws SQLException {
+        Instant highWaterMark = incremental ? loadHighWaterMark(conn, region) : null;
+        Map<UUID, IdImageName> images = new LinkedHashMap<>();
+
+        Instant createdAfter = highWaterMark == null ? Instant.EPOCH : highWaterMark.minus(Duration.ofMinutes(HIGH_WATER_MARK_OVERLAP_MINUTES));
+        Instant newHighWaterMark = highWaterMark;
+        try (PreparedStatement stmt = conn.prepareStatement("select id, filename, created from xpoints.images where created > ?")) {
+            stmt.setTimestamp(1, Timestamp.from(createdAfter));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    UUID id = (UUID) rs.getObject("id");
+                    images.put(id, new IdImageName(id, rs.getString("filename")));
+
+                    Timestamp created = rs.getTimestamp("created");
+                    if (created != null && (newHighWaterMark == null || created.toInstant().isAfter(newHighWaterMark)))
+                        newHighWaterMark = created.toInstant();
+                }
+            }
+        }
+
+        if (highWaterMark == null) {
+            return new ImageLoad(new ArrayList<>(images.values()), newHighWaterMark, false);
+        }
+
+        // URLs issued before the cutoff have less than the threshold share of their validity left
+        long refreshAfterMinutes = (long) URL_DURATION_MINUTES * (100 - REFRESH_THRESHOLD_PERCENT) / 100;
+        Instant issuedBefore = Instant.now().minus(Duration.ofMinutes(refreshAfterMinutes));
+        try (PreparedStatement stmt = conn.prepareStatement("select i.id, i.filename from xpoints.image_urls u inner join xpoints.images i on i.id = u.image_id where u.region = ? and u.created < ?")) {
+            stmt.setString(1, region);
+            stmt.setTimestamp(2, Timestamp.from(issuedBefore));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    UUID id = (UUID) rs.getObject("id");
+                    images.putIfAbsent(id, new IdImageName(id, rs.getString("filename")));
+                }
+            }
+        }
+
+        return new ImageLoad(new ArrayList<>(images.values()), newHighWaterMark, true);
     }
 
-    private void loadImages(Connection conn) {
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("select id, filename FROM xpoints.images")) {
-            while (rs.next()) {
-                UUID id = (UUID) rs.getObject("id");
-                images.add(new IdImageName(id, rs.getString("filename")));
+    private Instant loadHighWaterMark(Connection conn, String region) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("select checkpoint from xpoints.job_checkpoints where job_name = ? and region = ?")) {
+            stmt.setString(1, JOB_NAME);
+            stmt.setString(2, region);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getString("checkpoint") != null ? Instant.parse(rs.getString("checkpoint")) : null;
             }
-        } catch (SQLException e) {
-            logger.error("Unable to read image records", e);
-            throw new RuntimeException("Unable to read image records", e);
         }
     }
 
-    private void presign() {
-        try (S3Presigner presigner = S3Presigner.create()) {
+    private Void saveHighWaterMark(Connection conn, String region, Instant highWaterMark) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("insert into xpoints.job_checkpoints (job_name, region, checkpoint, updated_at) values (?, ?, ?, now()) on conflict (job_name, region) do update set checkpoint = excluded.checkpoint, updated_at = excluded.updated_at")) {
+            stmt.setString(1, JOB_NAME);
+            stmt.setString(2, region);
+            stmt.setString(3, highWaterMark.toString());
+            stmt.executeUpdate();
+        }
+
+        return null;
+    }
+
+    /**
+     * Presigns all images concurrently, one virtual thread each, sharing a single presigner. Images that fail to
+     * sign are logged and left out, so one bad file name does not stop the rest from being refreshed.
+     *
+     * @param images    The images to sign
+     * @return  The images that were signed, with their URLs set
+     */
+    private List<IdImageName> presign(List<IdImageName> images) {
+        List<IdImageName> signed = new ArrayList<>(images.size());
+
+        try (S3Presigner presigner = S3Presigner.create();
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> urls = new ArrayList<>(images.size());
             for (IdImageName image : images) {
-                image.url = fetchPresignedUrl(presigner, image.imageName);
+                urls.add(executor.submit(() -> fetchPresignedUrl(presigner, image.imageName)));
+            }
+
+            for (int i = 0; i < images.size(); i++) {
+                IdImageName image = images.get(i);
+                try {
+                    image.url = urls.get(i).get();
+                    signed.add(image);
+                } catch (ExecutionException e) {
+                    logger.error("Unable to presign image " + image.imageName, e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
             }
         }
+
+        return signed;
     }
 
     private String fetchPresignedUrl(S3Presigner presigner, String imageName) {
@@ -124,58 +238,43 @@ public class ImagePresignedUrlGeneratorFunction extends BaseRewardsFunction impl
         return presignedGetObjectRequest.url().toString();
     }
 
-    private void saveImageUrls(Connection conn) throws SQLException {
-        int attempt = 0;
+    /**
+     * Writes the URLs one chunk per transaction, so a conflict only retries its own chunk and never the whole run.
+     */
+    private void saveImageUrls(List<IdImageName> images, String region, Context context) {
+        for (int from = 0; from < images.size(); from += CHUNK_SIZE) {
+            List<IdImageName> chunk = images.subList(from, Math.min(images.size(), from + CHUNK_SIZE));
 
-        String region = getCurrentRegion().id();
+            inTransaction(JOB_NAME, context, conn -> {
+                for (IdImageName image : chunk) {
+                    upsertStmt.setObject(1, image.id);
+                    upsertStmt.setString(2, region);
+                    upsertStmt.setString(3, image.url);
+                    upsertStmt.addBatch();
+                }
+                upsertStmt.executeBatch();
 
-        try (PreparedStatement select = conn.prepareStatement("select 1 from xpoints.image_urls where image_id = ? and region = ?");
-             PreparedStatement insert = conn.prepareStatement("insert into xpoints.image_urls (image_id, region, presigned_url) values (?, ?, ?)");
-             PreparedStatement update = conn.prepareStatement("update xpoints.image_urls set presigned_url = ?, created = ? where image_id = ? and region = ?")) {
+                return null;
+            });
+        }
+    }
 
-            while (attempt++ < MAX_DB_RETRIES) {
-                if (attempt > 1)
-                    backoff(attempt);
+    @Override
+    protected void connectionSetup(Connection connection) throws SQLException {
+        super.connectionSetup(connection);
+        connection.setAutoCommit(false);
 
-                ResultSet rs = null;
+        upsertStmt = connection.prepareStatement("insert into xpoints.image_urls (image_id, region, presigned_url, created) values (?, ?, ?, now()) on conflict (image_id, region) do update set presigned_url = excluded.presigned_url, created = excluded.created");
+    }
 
-                try {
-                    for (IdImageName image : images) {
-                        select.setObject(1, image.id);
-                        select.setString(2, region);
-                        rs = select.executeQuery();
-
-                        if (rs.next()) {
-                            update.setString(1, image.url);
-                            update.setTimestamp(2, Timestamp.from(Instant.now()));
-                            update.setObject(3, image.id);
-                            update.setString(4, region);
-                            update.executeUpdate();
-                        } else {
-                            insert.setObject(1, image.id);
-                            insert.setString(2, region);
-                            insert.setString(3, image.url);
-                            insert.executeUpdate();
-                        }
-                        rs.close();
-                    }
-                    conn.commit();
-                    attempt = MAX_DB_RETRIES;
-                } catch (SQLException e) {
-                    DatabaseUtil.rollbackQuietly(conn);
-                    if (attempt == MAX_DB_RETRIES || !DsqlLib.isConcurrencyConflict(e)) {
-                        logger.error("Failing at attempt: " + attempt + " with SQL State " + e.getSQLState(), e);
-                        throw new RuntimeException(e);
-                    } else {
-                        logger.warn("Concurrency collision on attempt " + attempt);
-                    }
-                } finally {
-                    DatabaseUtil.closeQuietly(rs);
-                }
-            }
-        }
+    @Override
+    protected void close() {
+        DatabaseUtil.closeQuietly(upsertStmt);
+        super.close();
     }
 
+    private record ImageLoad(List<IdImageName> images, Instant highWaterMark, boolean incremental) {}
+
     private class IdImageName {
         private UUID id;
         private String imageName;
@@ -0,0 +1,154 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Presigns catalog image URLs in process instead of reading them from xpoints.image_urls. It is used when
+ * IMAGE_URL_MODE is "on_demand". Read queries then select the image file name from xpoints.images, and handlers
+ * sign it here. Signing is a local computation. Signed URLs are cached per file and reissued once half their
+ * validity has passed, so every URL handed out stays valid for at least half of PRESIGNED_URL_DURATION_MINUTES.
+ */
+public class ImageUrlSigner {
+    private static final int MAX_ENTRIES = 100_000;
+    private static final int DEFAULT_DURATION_MINUTES = 60 * 12;
+
+    private static final boolean onDemand = "on_demand".equalsIgnoreCase(System.getenv("IMAGE_URL_MODE"));
+    private static volatile ImageUrlSigner instance;
+
+    private final S3Presigner presigner;
+    private final String bucket;
+    private final String baseKey;
+    private final Duration duration;
+    private final Map<String, SignedUrl> urls = new ConcurrentHashMap<>();
+
+
+    public ImageUrlSigner(S3Presigner presigner, String bucket, String baseKey, Duration duration) {
+        this.presigner = presigner;
+        this.bucket = bucket;
+        this.baseKey = baseKey;
+        this.duration = duration;
+    }
+
+    /**
+     * @return  True if read handlers should sign image URLs themselves rather than read them from the database
+     */
+    public static boolean isOnDemand() {
+        return onDemand;
+    }
+
+    /**
+     * Returns the JVM-wide signer, creating it on first use from the IMAGE_BUCKET, IMAGE_BASE_KEY and
+     * PRESIGNED_URL_DURATION_MINUTES environment variables.
+     *
+     * @return  The shared signer
+     */
+    public static ImageUrlSigner getInstance() {
+        ImageUrlSigner signer = instance;
+        if (signer == null) {
+            synchronized (ImageUrlSigner.class) {
+                if (instance == null) {
+                    instance = fromEnvironment();
+                }
+                signer = instance;
+            }
+        }
+
+        return signer;
+    }
+
+    /**
+     * Returns a presigned URL for the image file, reusing the cached one while it has more than half its
+     * validity left.
+     *
+     * @param filename  File name of the image, as stored in xpoints.images
+     * @return  The URL, or null if the file name is null
+     */
+    public String sign(String filename) {
+        if (filename == null)
+            return null;
+
+        long now = System.currentTimeMillis();
+        SignedUrl signed = urls.get(filename);
+        if (signed == null || now >= signed.reissueAt()) {
+            signed = new SignedUrl(presign(filename), now + duration.toMillis() / 2);
+
+            if (urls.size() >= MAX_ENTRIES) {
+                urls.values().removeIf(s -> now >= s.reissueAt());
+
+                Iterator<SignedUrl> it = urls.values().iterator();
+                while (urls.size() >= MAX_ENTRIES && it.hasNext()) {
+                    it.next();
+                    it.remove();
+                }
+            }
+            urls.put(filename, signed);
+        }
+
+        return signed.url();
+    }
+
+    private String presign(String filename) {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(baseKey + filename)
+                .build();
+
+        GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
+                .signatureDuration(duration)
+                .getObjectRequest(getObjectRequest)
+                .build();
+
+        return presigner.presignGetObject(presignRequest).url().toString();
+    }
+
+    private static ImageUrlSigner fromEnvironment() {
+        String bucket = System.getenv("IMAGE_BUCKET");
+        if (bucket == null)
+            throw new IllegalArgumentException("IMAGE_BUCKET must be set");
+
+        String baseKey = System.getenv("IMAGE_BASE_KEY");
+        if (baseKey == null)
+            baseKey = "/";
+        else if (!baseKey.endsWith("/"))
+            baseKey += "/";
+
+        int minutes = DEFAULT_DURATION_MINUTES;
+        String duration = System.getenv("PRESIGNED_URL_DURATION_MINUTES");
+        if (duration != null) {
+            try {
+                int parsed = Integer.parseInt(duration);
+                if (parsed > 0)
+                    minutes = parsed;
+            } catch (NumberFormatException ignored) {} // Just take the default value
+        }
+
+        return new ImageUrlSigner(S3Presigner.create(), bucket, baseKey, Duration.ofMinutes(minutes));
+    }
+
+    private record SignedUrl(String url, long reissueAt) {}
+}
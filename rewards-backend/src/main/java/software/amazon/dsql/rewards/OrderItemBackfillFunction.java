@@ -0,0 +1,150 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+
+/**
+ * Copies the catalog item name and description onto order items written before checkout started storing them.
+ * Rows are walked in primary key order, one committed chunk at a time, until none are left or the invocation is
+ * about to time out. It is safe to invoke again; a later run starts from the beginning and skips rows already
+ * filled in.
+ */
+public class OrderItemBackfillFunction extends BaseRewardsFunction implements RequestHandler<Map<String, Object>, String> {
+    private static final Logger logger = LoggerFactory.getLogger(OrderItemBackfillFunction.class);
+
+    private static final int CHUNK_SIZE = 500;          // Keeps each transaction well inside DSQL's row limits
+    private static final long STOP_MARGIN_MILLIS = 15 * 1000L;
+
+    private PreparedStatement selectChunkStmt;
+    private PreparedStatement updateStmt;
+
+    public OrderItemBackfillFunction() {
+        super();
+        try {
+            getConnection(false);
+        } catch (SQLException e) {
+            logger.error("Error initializing database connection.", e);
+            throw new RuntimeException("Error intializing database connection", e);
+        }
+    }
+
+    @Override
+    public String handleRequest(Map<String, Object> event, Context context) {
+        UUID afterTxId = new UUID(0L, 0L);
+        UUID afterItemId = new UUID(0L, 0L);
+        int updated = 0;
+        boolean done = false;
+
+        while (context.getRemainingTimeInMillis() > STOP_MARGIN_MILLIS) {
+            UUID fromTxId = afterTxId;
+            UUID fromItemId = afterItemId;
+
+            Chunk chunk = inTransaction("order_items", context, conn -> backfillChunk(fromTxId, fromItemId)).value();
+            updated += chunk.updated();
+
+            if (chunk.lastTxId() == null) {
+                done = true;
+                break;
+            }
+            afterTxId = chunk.lastTxId();
+            afterItemId = chunk.lastItemId();
+        }
+
+        String result = done ? "Backfill complete, " + updated + " order items updated"
+                             : "Backfill stopped before timeout, " + updated + " order items updated, invoke again to continue";
+        logger.info(result);
+        return result;
+    }
+
+    /**
+     * Fills in the next chunk of order items missing their item details.
+     *
+     * @param afterTxId     Transaction id of the last row of the previous chunk
+     * @param afterItemId   Catalog item id of the last row of the previous chunk
+     * @return  The number of rows updated and the key of the last row read, which is null once no rows are left
+     */
+    private Chunk backfillChunk(UUID afterTxId, UUID afterItemId) throws SQLException {
+        selectChunkStmt.setObject(1, afterTxId);
+        selectChunkStmt.setObject(2, afterItemId);
+        selectChunkStmt.setInt(3, CHUNK_SIZE);
+
+        List<OrderItemRow> rows = new ArrayList<>();
+        try (ResultSet rs = selectChunkStmt.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new OrderItemRow((UUID) rs.getObject("tx_id"), (UUID) rs.getObject("cat_item_id"),
+                        rs.getString("name"), rs.getString("description")));
+            }
+        }
+
+        if (rows.isEmpty()) {
+            return new Chunk(0, null, null);
+        }
+
+        int updated = 0;
+        for (OrderItemRow row : rows) {
+            // Items since removed from the catalog have nothing to copy
+            if (row.name() == null && row.description() == null)
+                continue;
+
+            updateStmt.setString(1, row.name());
+            updateStmt.setString(2, row.description());
+            updateStmt.setObject(3, row.txId());
+            updateStmt.setObject(4, row.catalogItemId());
+            updateStmt.addBatch();
+            updated++;
+        }
+        updateStmt.executeBatch();
+
+        OrderItemRow last = rows.getLast();
+        return new Chunk(updated, last.txId(), last.catalogItemId());
+    }
+
+    @Override
+    protected void connectionSetup(Connection connection) throws SQLException {
+        super.connectionSetup(connection);
+        connection.setAutoCommit(false);
+
+        selectChunkStmt = connection.prepareStatement("select o.tx_id, o.cat_item_id, ci.name, ci.description from xpoints.order_items o left outer join xpoints.catalog_items ci on ci.id = o.cat_item_id where (o.tx_id, o.cat_item_id) > (?, ?) and o.item_name is null and o.item_description is null order by o.tx_id, o.cat_item_id limit ?");
+        updateStmt = connection.prepareStatement("update xpoints.order_items set item_name = ?, item_description = ? where tx_id = ? and cat_item_id = ? and item_name is null and item_description is null");
+    }
+
+    @Override
+    protected void close() {
+        DatabaseUtil.closeQuietly(selectChunkStmt);
+        DatabaseUtil.closeQuietly(updateStmt);
+        super.close();
+    }
+
+    private record OrderItemRow(UUID txId, UUID catalogItemId, String name, String description) {}
+
+    private record Chunk(int updated, UUID lastTxId, UUID lastItemId) {}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A physical database connection owned by a {@link ConnectionPool}. Closing it hands it back to the pool
+ * rather than closing the underlying connection.
+ */
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final String sessionId;
+    private final long createdTime;
+    private final long expiryTime;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    private long lastReleasedTime;
+    private boolean broken;
+
+
+    PooledConnection(ConnectionPool pool, Connection connection, String sessionId, long maxLifetimeMillis) {
+        this.pool = pool;
+        this.connection = connection;
+        this.sessionId = sessionId;
+        this.createdTime = System.currentTimeMillis();
+        this.expiryTime = createdTime + maxLifetimeMillis;
+        this.lastReleasedTime = createdTime;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiryTime;
+    }
+
+    public long getRemainingLifetimeMillis() {
+        return expiryTime - System.currentTimeMillis();
+    }
+
+    /**
+     * Returns a prepared statement for the given SQL, preparing it on first use. Statements are cached for the
+     * lifetime of this physical connection, so callers must not close them.
+     *
+     * @param sql   SQL text of the statement
+     * @return  The cached prepared statement
+     * @throws SQLException For database errors preparing the statement
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+
+        return statement;
+    }
+
+    /**
+     * Marks this connection as unusable so that it is discarded instead of being returned to the pool.
+     */
+    public void markBroken() {
+        broken = true;
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    long getLastReleasedTime() {
+        return lastReleasedTime;
+    }
+
+    void setLastReleasedTime(long lastReleasedTime) {
+        this.lastReleasedTime = lastReleasedTime;
+    }
+
+    void closePhysical() {
+        for (PreparedStatement statement : statements.values()) {
+            DatabaseUtil.closeQuietly(statement);
+        }
+        statements.clear();
+        DatabaseUtil.closeQuietly(connection);
+    }
+
+    @Override
+    public void close() {
+        pool.release(this);
+    }
+}
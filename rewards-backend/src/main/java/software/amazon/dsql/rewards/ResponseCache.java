@@ -0,0 +1,169 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Caches fully serialized JSON response bodies, along with a gzipped copy of larger ones, so repeated requests
+ * for the same data skip serialization entirely. Each entry is tagged with the version of the data it was built
+ * from and is rebuilt once that version moves on or the entry outlives its time to live.
+ */
+public class ResponseCache {
+    private static final int GZIP_MIN_BYTES = 1024;
+
+    private final Map<String, CachedResponse> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlMillis;
+
+
+    public ResponseCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the cached response for the key, serializing a new one if there is none for this version.
+     *
+     * @param key           Identifies the response, e.g. the request parameters it depends on
+     * @param version       Version of the underlying data
+     * @param serializer    Produces the JSON body on a miss
+     * @return  The cached response
+     */
+    public CachedResponse get(String key, long version, Supplier<String> serializer) {
+        CachedResponse cached = get(key, version);
+        if (cached == null) {
+            cached = put(key, version, serializer.get());
+        }
+
+        return cached;
+    }
+
+    /**
+     * Returns the cached response for the key if there is a live one for this version.
+     *
+     * @param key       Identifies the response
+     * @param version   Version of the underlying data
+     * @return  The cached response, or null on a miss
+     */
+    public CachedResponse get(String key, long version) {
+        CachedResponse cached = entries.get(key);
+        if (cached != null && cached.version() == version && System.currentTimeMillis() < cached.expiresAt()) {
+            return cached;
+        }
+
+        return null;
+    }
+
+    /**
+     * Caches a serialized response body, compressing it if it is large enough to benefit.
+     *
+     * @param key       Identifies the response
+     * @param version   Version of the data the body was built from
+     * @param json      The JSON body
+     * @return  The cached response
+     */
+    public CachedResponse put(String key, long version, String json) {
+        long now = System.currentTimeMillis();
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        String gzipped = bytes.length >= GZIP_MIN_BYTES ? Base64.getEncoder().encodeToString(gzip(bytes)) : null;
+        CachedResponse cached = new CachedResponse(json, gzipped, version, now + ttlMillis);
+
+        if (entries.size() >= maxEntries) {
+            entries.values().removeIf(e -> e.version() != version || now >= e.expiresAt());
+
+            Iterator<CachedResponse> it = entries.values().iterator();
+            while (entries.size() >= maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        entries.put(key, cached);
+
+        return cached;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to compress response", e);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * A serialized response body.
+     *
+     * @param json      The JSON body
+     * @param gzipped   Base64 of the gzipped body, or null if the body is too small to be worth compressing
+     * @param version   Version of the data the body was built from
+     * @param expiresAt Time after which the body is rebuilt
+     */
+    public record CachedResponse(String json, String gzipped, long version, long expiresAt) {
+
+        /**
+         * Sets the body on the response, gzipped with a matching Content-Encoding header when the client accepts it.
+         *
+         * @param request   The request being answered
+         * @param response  The response to fill in, which must already have its headers set
+         */
+        public void writeTo(APIGatewayProxyRequestEvent request, APIGatewayProxyResponseEvent response) {
+            if (gzipped != null && acceptsGzip(request)) {
+                response.getHeaders().put("Content-Encoding", "gzip");
+                response.getHeaders().put("Vary", "Accept-Encoding");
+                response.setIsBase64Encoded(true);
+                response.setBody(gzipped);
+            } else {
+                response.setBody(json);
+            }
+        }
+
+        private static boolean acceptsGzip(APIGatewayProxyRequestEvent request) {
+            if (request.getHeaders() == null)
+                return false;
+
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                if ("accept-encoding".equalsIgnoreCase(header.getKey()) && header.getValue() != null
+                        && header.getValue().toLowerCase().contains("gzip")) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
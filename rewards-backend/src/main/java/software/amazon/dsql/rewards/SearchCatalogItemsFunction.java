@@ -0,0 +1,132 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.dsql.rewards.catalog.CatalogSnapshot;
+import software.amazon.dsql.rewards.catalog.CatalogStore;
+import software.amazon.dsql.rewards.model.CatalogItem;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+public class SearchCatalogItemsFunction extends BaseRewardsFunction implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(SearchCatalogItemsFunction.class);
+
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 100;
+
+    private static final Gson gson = new Gson();
+
+    // Typeahead sends the same prefixes over and over, so keep their serialized results until the snapshot changes
+    private static final ResponseCache responseCache = new ResponseCache(1024, 5 * 60 * 1000L);
+
+    private final List<String> sortFields = Arrays.asList("relevance", "name", "usd_price", "points_price", "rating");
+    private final List<String> sortOrders = Arrays.asList("asc", "desc");
+    private final List<String> categories = Arrays.asList("Books", "Electronics", "Clothing", "Home", "Toys", "Sports");
+
+    private final CatalogStore catalogStore;
+
+    public SearchCatalogItemsFunction() {
+        super(ClusterConfig.Profile.READ_ONLY);
+
+        // Searches only read the catalog snapshot, which loads through the connection pool, so no connection is
+        // held here
+        catalogStore = CatalogStore.forRegion(getConnectionPool(), getCurrentRegion().id());
+    }
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
+        APIGatewayProxyResponseEvent responseEvent = new APIGatewayProxyResponseEvent();
+        setCorsHeaders(responseEvent);
+
+        Map<String, String> params = event.getQueryStringParameters();
+        String query = params == null ? null : params.get("q");
+        if (query == null || query.isBlank()) {
+            responseEvent.setBody(makeErrorJson("Missing search text"));
+            responseEvent.setStatusCode(400);
+            return responseEvent;
+        }
+
+        try {
+            String sortField = getValue(params.get("sortBy"), sortFields, sortFields.getFirst());
+            String sortOrder = getValue(params.get("sortOrder"), sortOrders, sortOrders.getFirst());
+            String category = params.get("category");
+            int limit = DEFAULT_LIMIT;
+
+            if (category != null && !categories.contains(category)) {
+                responseEvent.setBody(toJson(List.of()));
+                responseEvent.setStatusCode(200);
+                return responseEvent;
+            }
+
+            if (params.containsKey("limit")) {
+                limit = Math.clamp(Integer.parseInt(params.get("limit")), 1, MAX_LIMIT);
+            }
+
+            process(query.trim().toLowerCase(), category, sortField, sortOrder, limit).writeTo(event, responseEvent);
+            responseEvent.setStatusCode(200);
+        } catch (IllegalArgumentException e) {  // Bad limit
+            responseEvent.setBody(makeErrorJson(e.getMessage()));
+            responseEvent.setStatusCode(400);
+        }
+
+        return responseEvent;
+    }
+
+    private ResponseCache.CachedResponse process(String query, String category, String sortField, String sortOrder, int limit) {
+        String key = query + "|" + category + "|" + sortField + "|" + sortOrder + "|" + limit;
+
+        try {
+            CatalogSnapshot snapshot = catalogStore.getSnapshot();
+            return responseCache.get(key, snapshot.getVersion(),
+                    () -> toJson(snapshot.search(query, category, sortField, sortOrder, limit)));
+        } catch (SQLException e) {
+            logger.error("ERROR CODE:  {}", e.getErrorCode());
+            logger.error("SQL STATE:   {}", e.getSQLState());
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toJson(List<CatalogItem> items) {
+        JsonObject data = new JsonObject();
+        data.add("products", gson.toJsonTree(items));
+        return gson.toJson(data);
+    }
+
+    private String getValue(String str, List<String> allowed, String defaultValue) {
+        if (str == null)
+            return defaultValue;
+
+        str = str.toLowerCase();
+        if (!allowed.contains(str))
+            return defaultValue;
+
+        return str;
+    }
+}
@@ -39,13 +39,11 @@ import java.util.UUID;
 public class ShoppingCartCheckoutFunction extends BaseRewardsFunction implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     private static final Logger logger = LoggerFactory.getLogger(ShoppingCartCheckoutFunction.class);
 
-    private PreparedStatement getCustStmt;
-    private PreparedStatement getCartItemsStmt;
-    private PreparedStatement getBalanceStmt;
+    private PreparedStatement getCheckoutStateStmt;
     private PreparedStatement updateBalanceStmt;
     private PreparedStatement insertTxStmt;
     private PreparedStatement insertOrderItemStmt;
-    private PreparedStatement deleteCartItemStmt;
+    private PreparedStatement clearCartStmt;
 
     public ShoppingCartCheckoutFunction() {
         super();
@@ -69,7 +67,7 @@ public class ShoppingCartCheckoutFunction extends BaseRewardsFunction implements
         }
 
         try {
-            UUID txId = process(username);
+            UUID txId = process(username, context);
 
             Gson gson = new Gson();
             JsonObject data = new JsonObject();
@@ -92,116 +90,75 @@ public class ShoppingCartCheckoutFunction extends BaseRewardsFunction implements
         return responseEvent;
     }
 
-    private UUID process(String username) {
-        int attempt = 0;
-        boolean retry = true;
-        boolean forceReconnect = false;
-
-        UUID transactionId = null;
-
-        while (retry && ++attempt <= MAX_DB_RETRIES) {
-            ResultSet rs1 = null;
-            ResultSet rs2 = null;
-            Connection conn = null;
+    private UUID process(String username, Context context) {
+        return inTransaction("customer:" + username, context, conn -> {
+            UUID customerId = requireCustomerId(username);
+
+            // Balance and priced cart items come back in one round trip
+            boolean found = false;
+            long pointsBalance = 0L;
+            long pointsTotal = 0L;
+            List<CartItemRow> cartItems = new ArrayList<>();
+
+            getCheckoutStateStmt.setObject(1, customerId);
+            try (ResultSet rs = getCheckoutStateStmt.executeQuery()) {
+                while (rs.next()) {
+                    if (!found) {
+                        found = true;
+                        pointsBalance = rs.getLong("points_balance");
+                    }
 
-            try {
-                conn = getConnection(forceReconnect);
+                    // Items no longer in the catalog can't be priced, so they are left out of the order
+                    if (rs.getObject("item_id") != null && rs.getObject("points_price") != null) {
+                        CartItemRow ci = new CartItemRow(customerId, (UUID) rs.getObject("item_id"),
+                                rs.getInt("quantity"), rs.getInt("points_price"), rs.getString("name"), rs.getString("description"));
 
-                UUID customerId;
-                getCustStmt.setString(1, username);
-                rs1 = getCustStmt.executeQuery();
-                if (rs1.next()) {
-                    customerId = (UUID) rs1.getObject(1);
-                } else {
-                    throw new IllegalArgumentException("Customer " + username + " not found");
+                        cartItems.add(ci);
+                        pointsTotal += (long) ci.pointsPrice * ci.quantity;
+                    }
                 }
+            }
 
-                getCartItemsStmt.setObject(1, customerId);
-                rs1 = getCartItemsStmt.executeQuery();
-
-                long pointsTotal = 0L;
-                int cnt = 0;
-                List<CartItemRow> cartItems = new ArrayList<>();
-
-                while (rs1.next()) {
-                    CartItemRow ci = new CartItemRow((UUID) rs1.getObject("customer_id"),
-                            (UUID) rs1.getObject("item_id"), rs1.getInt("quantity"), rs1.getInt("points_price"));
-
-                    cartItems.add(ci);
-                    pointsTotal += (long) ci.pointsPrice * ci.quantity;
-                    cnt++;
-                }
+            if (!found) {
+                throw new IllegalArgumentException("Customer " + username + " not found");
+            }
 
-                // Nothing to do with an empty cart
-                if (cnt == 0) {
-                    conn.commit();
-                    return null;
-                }
+            // Nothing to do with an empty cart
+            if (cartItems.isEmpty()) {
+                return null;
+            }
 
-                long pointsBalance = 0L;
-                getBalanceStmt.setObject(1, customerId);
-                rs2 = getBalanceStmt.executeQuery();
-                if (rs2.next()) {
-                    pointsBalance = rs2.getLong("points_balance");
-                }
+            if (pointsTotal > pointsBalance) {
+                throw new IllegalArgumentException("Insufficient points to complete order");
+            }
 
-                if (pointsTotal > pointsBalance) {
-                    conn.commit();
-                    throw new IllegalArgumentException("Insufficient points to complete order");
-                }
+            UUID transactionId = UUID.randomUUID();
+            for (CartItemRow ci : cartItems) {
+                insertOrderItemStmt.setObject(1, transactionId);
+                insertOrderItemStmt.setObject(2, ci.catalogItemId);
+                insertOrderItemStmt.setInt(3, ci.quantity);
+                insertOrderItemStmt.setInt(4, ci.pointsPrice);
+                insertOrderItemStmt.setString(5, ci.name);
+                insertOrderItemStmt.setString(6, ci.description);
+                insertOrderItemStmt.addBatch();
+            }
+            insertOrderItemStmt.executeBatch();
 
-                transactionId = UUID.randomUUID();
-                for (CartItemRow ci : cartItems) {
-                    insertOrderItemStmt.setObject(1, transactionId);
-                    insertOrderItemStmt.setObject(2, ci.catalogItemId);
-                    insertOrderItemStmt.setInt(3, ci.quantity);
-                    insertOrderItemStmt.setInt(4, ci.pointsPrice);
-                    insertOrderItemStmt.executeUpdate();
-
-                    deleteCartItemStmt.setObject(1, customerId);
-                    deleteCartItemStmt.setObject(2, ci.catalogItemId);
-                    deleteCartItemStmt.executeUpdate();
-                }
+            clearCartStmt.setObject(1, customerId);
+            clearCartStmt.executeUpdate();
 
-                insertTxStmt.setObject(1, transactionId);
-                insertTxStmt.setObject(2, customerId);
-                insertTxStmt.setString(3, "SPEND");
-                insertTxStmt.setLong(4, pointsTotal * -1);
-                insertTxStmt.executeUpdate();
-
-                updateBalanceStmt.setLong(1, pointsTotal);
-                updateBalanceStmt.setObject(2, customerId);
-                updateBalanceStmt.executeUpdate();
-
-                conn.commit();
-                retry = false;
-            } catch (SQLException e) {
-                DatabaseUtil.rollbackQuietly(conn);
-                if (DsqlLib.isConcurrencyConflict(e)) {
-                    logger.warn("Concurrency conflict: {}", e.getMessage());
-                } else {
-                    logger.error("SESSION ID:  {}", getSessionId());
-                    logger.error("ERROR CODE:  {}", e.getErrorCode());
-                    logger.error("SQL STATE:   {}", e.getSQLState());
-                    logger.error("Database error", e);
-
-                    if (DsqlLib.isConnectionError(e) && attempt < MAX_DB_RETRIES) {
-                        forceReconnect = true;
-                    } else {
-                        throw new RuntimeException(e);
-                    }
-                }
-            } finally {
-                DatabaseUtil.closeQuietly(rs1);
-                DatabaseUtil.closeQuietly(rs2);
-            }
+            insertTxStmt.setObject(1, transactionId);
+            insertTxStmt.setObject(2, customerId);
+            insertTxStmt.setString(3, "SPEND");
+            insertTxStmt.setLong(4, pointsTotal * -1);
+            insertTxStmt.executeUpdate();
 
-            if (retry) {
-                backoff(attempt);
-            }
-        }
+            updateBalanceStmt.setLong(1, pointsTotal);
+            updateBalanceStmt.setObject(2, customerId);
+            updateBalanceStmt.executeUpdate();
 
-        return transactionId;
+            return transactionId;
+        }).value();
     }
 
     @Override
@@ -209,27 +166,24 @@ public class ShoppingCartCheckoutFunction extends BaseRewardsFunction implements
         super.connectionSetup(connection);
         connection.setAutoCommit(false);
 
-        getCustStmt = connection.prepareStatement("select id from xpoints.customers where username = ?");
-        getCartItemsStmt = connection.prepareStatement("select cart.*, cat.points_price from xpoints.shopping_cart_items cart inner join xpoints.catalog_items cat on cart.item_id = cat.id where cart.customer_id = ?");
-        getBalanceStmt = connection.prepareStatement("select points_balance from xpoints.points_balances where customer_id = ?");
-        insertOrderItemStmt = connection.prepareStatement("insert into xpoints.order_items (tx_id, cat_item_id, unit_cnt, unit_points_price) values(?, ?, ?, ?)");
+        getCheckoutStateStmt = connection.prepareStatement("select bal.points_balance, cart.item_id, cart.quantity, cat.points_price, cat.name, cat.description from xpoints.customers c left outer join xpoints.points_balances bal on bal.customer_id = c.id left outer join xpoints.shopping_cart_items cart on cart.customer_id = c.id left outer join xpoints.catalog_items cat on cat.id = cart.item_id where c.id = ?");
+        // The item's name and description are kept with the order so history shows what was bought, as it was then
+        insertOrderItemStmt = connection.prepareStatement("insert into xpoints.order_items (tx_id, cat_item_id, unit_cnt, unit_points_price, item_name, item_description) values(?, ?, ?, ?, ?, ?)");
         insertTxStmt = connection.prepareStatement("insert into xpoints.transactions (id, customer_id, tx_type, points) values (?, ?, ?, ?)");
         updateBalanceStmt = connection.prepareStatement("update xpoints.points_balances set points_balance = points_balance - ? where customer_id = ?");
-        deleteCartItemStmt = connection.prepareStatement("delete from xpoints.shopping_cart_items where customer_id = ? and item_id = ?");
+        clearCartStmt = connection.prepareStatement("delete from xpoints.shopping_cart_items where customer_id = ?");
     }
 
     @Override
     protected void close() {
-        DatabaseUtil.closeQuietly(getCustStmt);
-        DatabaseUtil.closeQuietly(getCartItemsStmt);
-        DatabaseUtil.closeQuietly(getBalanceStmt);
+        DatabaseUtil.closeQuietly(getCheckoutStateStmt);
         DatabaseUtil.closeQuietly(updateBalanceStmt);
         DatabaseUtil.closeQuietly(insertTxStmt);
         DatabaseUtil.closeQuietly(insertOrderItemStmt);
-        DatabaseUtil.closeQuietly(deleteCartItemStmt);
+        DatabaseUtil.closeQuietly(clearCartStmt);
 
         super.close();
     }
 
-    record CartItemRow(UUID customerId, UUID catalogItemId, int quantity, int pointsPrice) {}
+    record CartItemRow(UUID customerId, UUID catalogItemId, int quantity, int pointsPrice, String name, String description) {}
 }
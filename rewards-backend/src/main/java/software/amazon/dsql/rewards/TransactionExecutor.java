@@ -0,0 +1,200 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.Supplier;
+
+
+/**
+ * Runs a unit of work in a DSQL transaction, committing on success and rolling back on failure. Optimistic
+ * concurrency conflicts (SQL state 40001) are retried after a backoff, and connection errors (08xxx) are retried
+ * on a fresh connection. Any other exception is rethrown after the rollback.
+ */
+public class TransactionExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionExecutor.class);
+
+    private static final long MIN_ATTEMPT_MILLIS = 250L;  // Don't start a retry with less time than this left
+
+    private final ConnectionProvider connectionProvider;
+    private final Supplier<String> sessionIdSupplier;
+    private final BackoffPolicy backoffPolicy;
+    private final int maxAttempts;
+
+
+    public TransactionExecutor(ConnectionProvider connectionProvider, Supplier<String> sessionIdSupplier,
+                               BackoffPolicy backoffPolicy, int maxAttempts) {
+        this.connectionProvider = connectionProvider;
+        this.sessionIdSupplier = sessionIdSupplier;
+        this.backoffPolicy = backoffPolicy;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Runs the work until it commits, fails with a non-retryable error, or runs out of attempts. The work must
+     * not commit or roll back itself. It may be run more than once, so it must not have side effects outside the
+     * transaction.
+     *
+     * @param work  The unit of work
+     * @return  The work's return value along with the attempts made and the time spent backing off
+     * @throws RuntimeException Wrapping the last database error if the transaction could not be committed
+     */
+    public <T> Result<T> execute(Work<T> work) {
+        return execute(null, Long.MAX_VALUE, work);
+    }
+
+    /**
+     * Runs the work as {@link #execute(Work)} does, reporting conflicts and commits to the backoff policy under
+     * the given key and giving up instead of retrying when the next attempt could not start before the deadline.
+     *
+     * @param key               What the transaction contends on, such as a customer, or null if unknown
+     * @param deadlineMillis    Wall clock time by which retries must stop
+     * @param work              The unit of work
+     * @return  The work's return value along with the attempts made and the time spent backing off
+     * @throws RuntimeException Wrapping the last database error if the transaction could not be committed
+     */
+    public <T> Result<T> execute(String key, long deadlineMillis, Work<T> work) {
+        return execute(key, deadlineMillis, false, work);
+    }
+
+    /**
+     * Runs the work as a read-only transaction, so all of its statements read from one snapshot and DSQL does not
+     * have to track it for conflicts. The connection is switched out of autocommit for the transaction and put back
+     * afterwards, so this works on connections that otherwise run in autocommit mode.
+     *
+     * @param deadlineMillis    Wall clock time by which retries must stop
+     * @param work              The unit of work, which must only read
+     * @return  The work's return value along with the attempts made and the time spent backing off
+     * @throws RuntimeException Wrapping the last database error if the transaction could not be completed
+     */
+    public <T> Result<T> executeReadOnly(long deadlineMillis, Work<T> work) {
+        return execute(null, deadlineMillis, true, work);
+    }
+
+    private <T> Result<T> execute(String key, long deadlineMillis, boolean readOnly, Work<T> work) {
+        int attempt = 0;
+        long backoffMillis = 0L;
+        boolean forceReconnect = false;
+
+        while (true) {
+            attempt++;
+            Connection conn = null;
+            boolean restoreAutoCommit = false;
+
+            try {
+                conn = connectionProvider.getConnection(forceReconnect);
+                forceReconnect = false;
+
+                if (readOnly) {
+                    // The driver opens the transaction as BEGIN READ ONLY along with the first statement
+                    restoreAutoCommit = conn.getAutoCommit();
+                    conn.setAutoCommit(false);
+                    conn.setReadOnly(true);
+                }
+
+                T value = work.execute(conn);
+                conn.commit();
+                backoffPolicy.onSuccess(key);
+
+                return new Result<>(value, attempt, backoffMillis);
+            } catch (SQLException e) {
+                DatabaseUtil.rollbackQuietly(conn);
+
+                if (DsqlLib.isConcurrencyConflict(e)) {
+                    backoffPolicy.onConflict(key);
+                    logger.warn("Concurrency conflict on attempt {}: {}", attempt, e.getMessage());
+                } else {
+                    logger.error("SESSION ID:  {}", sessionIdSupplier.get());
+                    logger.error("ERROR CODE:  {}", e.getErrorCode());
+                    logger.error("SQL STATE:   {}", e.getSQLState());
+                    logger.error("Database error", e);
+
+                    if (!DsqlLib.isConnectionError(e)) {
+                        throw new RuntimeException(e);
+                    }
+                    forceReconnect = true;
+                }
+
+                if (attempt >= maxAttempts) {
+                    logger.error("Failing after {} attempts with SQL State {}", attempt, e.getSQLState());
+                    throw new RuntimeException(e);
+                }
+
+                long delay = backoffPolicy.delayMillis(key, attempt);
+                if (System.currentTimeMillis() + delay + MIN_ATTEMPT_MILLIS > deadlineMillis) {
+                    logger.error("Failing after {} attempts, not enough time left to retry", attempt);
+                    throw new RuntimeException(e);
+                }
+
+                backoffMillis += sleep(delay);
+            } catch (RuntimeException e) {
+                DatabaseUtil.rollbackQuietly(conn);
+                throw e;
+            } finally {
+                if (readOnly && conn != null) {
+                    endReadOnly(conn, restoreAutoCommit);
+                }
+            }
+        }
+    }
+
+    private static void endReadOnly(Connection conn, boolean restoreAutoCommit) {
+        try {
+            conn.setReadOnly(false);
+            if (restoreAutoCommit)
+                conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            logger.warn("Unable to reset connection after read-only transaction: {}", e.getMessage());
+        }
+    }
+
+    private static long sleep(long duration) {
+        long start = System.nanoTime();
+        try {Thread.sleep(duration);} catch (InterruptedException ignored) {}
+        return (System.nanoTime() - start) / 1_000_000L;
+    }
+
+    /**
+     * Supplies the connection to run a transaction on, reconnecting when asked to.
+     */
+    @FunctionalInterface
+    public interface ConnectionProvider {
+        Connection getConnection(boolean forceReconnect) throws SQLException;
+    }
+
+    /**
+     * A unit of work run inside a transaction.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T execute(Connection conn) throws SQLException;
+    }
+
+    /**
+     * The outcome of a committed transaction.
+     *
+     * @param value         The value returned by the work
+     * @param attempts      Number of times the work was run
+     * @param backoffMillis Total time spent sleeping between attempts
+     */
+    public record Result<T>(T value, int attempts, long backoffMillis) {}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards.catalog;
+
+import software.amazon.dsql.rewards.model.CatalogItem;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+
+/**
+ * Position in a sorted catalog listing, i.e. the sort key of the last item on a page. The item id is part of the
+ * key so that items with equal sort values still have a strict order. Cursors are handed to clients as opaque URL
+ * safe tokens and are only valid for the sort field they were issued for.
+ *
+ * @param sortField One of {@link CatalogSnapshot#SORT_FIELDS}
+ * @param value     The item's value for the sort field, or null if the item has none
+ * @param id        The item's id
+ */
+public record CatalogCursor(String sortField, Object value, UUID id) {
+
+    /**
+     * Returns the cursor positioned on the given item.
+     *
+     * @param sortField Sort field of the listing
+     * @param item      Last item on the page
+     * @return  The cursor
+     */
+    public static CatalogCursor after(String sortField, CatalogItem item) {
+        Object value = switch (sortField) {
+            case "name" -> item.getName();
+            case "usd_price" -> item.getUsdPrice();
+            case "points_price" -> item.getPointsPrice();
+            case "rating" -> item.getRating();
+            default -> throw new IllegalArgumentException("Unsupported sort field " + sortField);
+        };
+
+        return new CatalogCursor(sortField, value, item.getId());
+    }
+
+    public String encode() {
+        String raw = sortField + ":" + id + ":" + (value == null ? "-" : "+" + value);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses a cursor token issued for the given sort field.
+     *
+     * @param token     The token from the client
+     * @param sortField Sort field of the listing being paged
+     * @return  The cursor
+     * @throws IllegalArgumentException If the token is malformed or belongs to another sort field
+     */
+    public static CatalogCursor decode(String token, String sortField) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":", 3);
+            if (parts.length != 3 || !parts[0].equals(sortField) || parts[2].isEmpty())
+                throw new IllegalArgumentException("Invalid cursor");
+
+            String raw = parts[2].startsWith("+") ? parts[2].substring(1) : null;
+            Object value = raw == null ? null : switch (sortField) {
+                case "name" -> raw;
+                case "usd_price" -> new BigDecimal(raw);
+                case "points_price" -> Long.parseLong(raw);
+                case "rating" -> Float.parseFloat(raw);
+                default -> throw new IllegalArgumentException("Unsupported sort field " + sortField);
+            };
+
+            return new CatalogCursor(sortField, value, UUID.fromString(parts[1]));
+        } catch (IllegalArgumentException e) {  // Also covers bad Base64, numbers and UUIDs
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    /**
+     * Returns an item carrying only the cursor's sort key, for comparing against catalog items.
+     */
+    CatalogItem toKey() {
+        CatalogItem key = new CatalogItem();
+        key.setId(id);
+
+        switch (sortField) {
+            case "name" -> key.setName((String) value);
+            case "usd_price" -> key.setUsdPrice((BigDecimal) value);
+            case "points_price" -> key.setPointsPrice(value == null ? 0L : (Long) value);
+            case "rating" -> key.setRating(value == null ? 0f : (Float) value);
+        }
+
+        return key;
+    }
+}
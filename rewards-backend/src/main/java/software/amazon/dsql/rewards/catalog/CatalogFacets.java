@@ -0,0 +1,285 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards.catalog;
+
+import software.amazon.dsql.rewards.model.CatalogItem;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToDoubleFunction;
+
+
+/**
+ * Bitmap indexes over a snapshot's items for filtering on attributes and counting facets. Bit i stands for the
+ * item at index i of the snapshot. There is one bitmap per category and per value bucket, so combining filters
+ * and counting facets are bitwise operations. Open ended range filters are turned into bitmaps from the snapshot's
+ * sorted views, where every range is a contiguous slice.
+ */
+public class CatalogFacets {
+    public static final Buckets POINTS_BUCKETS = new Buckets(0, 1000, 2500, 5000, 7500);
+    public static final Buckets USD_PRICE_BUCKETS = new Buckets(0, 100, 250, 500, 750);
+    public static final Buckets WEIGHT_BUCKETS = new Buckets(0, 1, 5, 10);
+    public static final Buckets SIZE_BUCKETS = new Buckets(0, 10, 25, 50);
+    private static final int[] RATING_MINIMUMS = {4, 3, 2, 1};
+
+    private static final ToDoubleFunction<CatalogItem> POINTS = CatalogItem::getPointsPrice;
+    private static final ToDoubleFunction<CatalogItem> USD_PRICE =
+            item -> item.getUsdPrice() == null ? Double.POSITIVE_INFINITY : item.getUsdPrice().doubleValue();
+    private static final ToDoubleFunction<CatalogItem> RATING = CatalogItem::getRating;
+
+    private final CatalogItem[] items;
+    private final int[] pointsView;
+    private final int[] usdPriceView;
+    private final int[] ratingView;
+
+    private final Map<String, BitSet> categoryBits = new TreeMap<>();
+    private final Map<String, BitSet> pointsBits = new LinkedHashMap<>();
+    private final Map<String, BitSet> usdPriceBits = new LinkedHashMap<>();
+    private final Map<String, BitSet> ratingBits = new LinkedHashMap<>();
+    private final Map<String, BitSet> weightBits;
+    private final Map<String, BitSet> sizeBits;
+
+
+    /**
+     * @param items     The snapshot's items
+     * @param allViews  The snapshot's ascending views of all items, by sort field
+     */
+    CatalogFacets(CatalogItem[] items, Map<String, int[]> allViews) {
+        this.items = items;
+        this.pointsView = allViews.get("points_price");
+        this.usdPriceView = allViews.get("usd_price");
+        this.ratingView = allViews.get("rating");
+
+        for (int i = 0; i < items.length; i++) {
+            if (items[i].getCategory() != null) {
+                categoryBits.computeIfAbsent(items[i].getCategory(), k -> new BitSet(items.length)).set(i);
+            }
+        }
+
+        for (int b = 0; b < POINTS_BUCKETS.size(); b++) {
+            pointsBits.put(POINTS_BUCKETS.label(b), range(pointsView, POINTS, POINTS_BUCKETS.lower(b), POINTS_BUCKETS.upper(b), false));
+        }
+        for (int b = 0; b < USD_PRICE_BUCKETS.size(); b++) {
+            usdPriceBits.put(USD_PRICE_BUCKETS.label(b), range(usdPriceView, USD_PRICE, USD_PRICE_BUCKETS.lower(b), USD_PRICE_BUCKETS.upper(b), false));
+        }
+        for (int minimum : RATING_MINIMUMS) {
+            ratingBits.put(minimum + "+", range(ratingView, RATING, minimum, Double.POSITIVE_INFINITY, false));
+        }
+
+        weightBits = bucket(WEIGHT_BUCKETS, CatalogItem::getWeight);
+        sizeBits = bucket(SIZE_BUCKETS, item -> Math.max(item.getWidth(), Math.max(item.getHeight(), item.getDepth())));
+    }
+
+    /**
+     * Evaluates the filters and counts, for every facet, how many items fall in each of its buckets. The counts
+     * for a facet apply every filter except the facet's own, so they show what choosing another bucket would give.
+     *
+     * @param category  Category filter, or null
+     * @param filter    Attribute filters
+     * @return  The matching items and the facet counts
+     */
+    Result apply(String category, CatalogFilter filter) {
+        BitSet categoryMask = category == null ? null : categoryBits.getOrDefault(category, new BitSet());
+
+        BitSet pointsMask = null;
+        if (filter.minPoints() != null || filter.maxPoints() != null) {
+            pointsMask = range(pointsView, POINTS,
+                    filter.minPoints() == null ? Double.NEGATIVE_INFINITY : filter.minPoints(),
+                    filter.maxPoints() == null ? Double.MAX_VALUE : filter.maxPoints(), true);
+        }
+
+        BitSet usdPriceMask = null;
+        if (filter.minUsdPrice() != null || filter.maxUsdPrice() != null) {
+            usdPriceMask = range(usdPriceView, USD_PRICE,
+                    filter.minUsdPrice() == null ? Double.NEGATIVE_INFINITY : filter.minUsdPrice().doubleValue(),
+                    filter.maxUsdPrice() == null ? Double.MAX_VALUE : filter.maxUsdPrice().doubleValue(), true);
+        }
+
+        BitSet ratingMask = filter.minRating() == null ? null
+                : range(ratingView, RATING, filter.minRating(), Double.POSITIVE_INFINITY, false);
+        BitSet weightMask = union(weightBits, filter.weight());
+        BitSet sizeMask = union(sizeBits, filter.size());
+
+        Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
+        counts.put("category", count(categoryBits, pointsMask, usdPriceMask, ratingMask, weightMask, sizeMask));
+        counts.put("points_price", count(pointsBits, categoryMask, usdPriceMask, ratingMask, weightMask, sizeMask));
+        counts.put("usd_price", count(usdPriceBits, categoryMask, pointsMask, ratingMask, weightMask, sizeMask));
+        counts.put("rating", count(ratingBits, categoryMask, pointsMask, usdPriceMask, weightMask, sizeMask));
+        counts.put("weight", count(weightBits, categoryMask, pointsMask, usdPriceMask, ratingMask, sizeMask));
+        counts.put("size", count(sizeBits, categoryMask, pointsMask, usdPriceMask, ratingMask, weightMask));
+
+        BitSet matches = intersect(categoryMask, pointsMask, usdPriceMask, ratingMask, weightMask, sizeMask);
+        if (matches == null) {
+            matches = new BitSet(items.length);
+            matches.set(0, items.length);
+        }
+
+        return new Result(matches, counts);
+    }
+
+    /**
+     * Returns the items whose value lies between the bounds. The view must be sorted ascending on the value.
+     */
+    private BitSet range(int[] view, ToDoubleFunction<CatalogItem> value, double lower, double upper, boolean upperInclusive) {
+        int from = search(view, value, lower, false);
+        int to = search(view, value, upper, upperInclusive);
+
+        BitSet bits = new BitSet(items.length);
+        for (int p = from; p < to; p++)
+            bits.set(view[p]);
+
+        return bits;
+    }
+
+    /**
+     * Binary search of a sorted view for the first item whose value is at least the key, or above it if strict.
+     */
+    private int search(int[] view, ToDoubleFunction<CatalogItem> value, double key, boolean strict) {
+        int low = 0;
+        int high = view.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            double v = value.applyAsDouble(items[view[mid]]);
+            if (v > key || (v == key && !strict)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        return low;
+    }
+
+    private Map<String, BitSet> bucket(Buckets buckets, ToDoubleFunction<CatalogItem> value) {
+        Map<String, BitSet> bits = new LinkedHashMap<>();
+        for (int b = 0; b < buckets.size(); b++)
+            bits.put(buckets.label(b), new BitSet(items.length));
+
+        for (int i = 0; i < items.length; i++) {
+            int b = buckets.indexOf(value.applyAsDouble(items[i]));
+            if (b >= 0)
+                bits.get(buckets.label(b)).set(i);
+        }
+
+        return bits;
+    }
+
+    private static BitSet union(Map<String, BitSet> bits, List<String> labels) {
+        if (labels.isEmpty())
+            return null;
+
+        BitSet result = new BitSet();
+        for (String label : labels)
+            result.or(bits.get(label));
+
+        return result;
+    }
+
+    private static BitSet intersect(BitSet... masks) {
+        BitSet result = null;
+        for (BitSet mask : masks) {
+            if (mask == null)
+                continue;
+
+            if (result == null) {
+                result = (BitSet) mask.clone();
+            } else {
+                result.and(mask);
+            }
+        }
+
+        return result;
+    }
+
+    private static Map<String, Integer> count(Map<String, BitSet> buckets, BitSet... otherMasks) {
+        BitSet base = intersect(otherMasks);
+
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, BitSet> bucket : buckets.entrySet()) {
+            if (base == null) {
+                counts.put(bucket.getKey(), bucket.getValue().cardinality());
+            } else {
+                BitSet both = (BitSet) base.clone();
+                both.and(bucket.getValue());
+                counts.put(bucket.getKey(), both.cardinality());
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * The items matching a set of filters and the facet counts under them.
+     *
+     * @param matches   Bit set of matching item indexes
+     * @param counts    Item count by bucket label, by facet name
+     */
+    record Result(BitSet matches, Map<String, Map<String, Integer>> counts) {}
+
+    /**
+     * Consecutive value ranges, each including its lower bound, with the last one open ended.
+     */
+    public static final class Buckets {
+        private final double[] bounds;
+        private final List<String> labels = new ArrayList<>();
+
+        Buckets(double... bounds) {
+            this.bounds = bounds;
+            for (int b = 0; b < bounds.length; b++) {
+                labels.add(b == bounds.length - 1 ? format(bounds[b]) + "+" : format(bounds[b]) + "-" + format(bounds[b + 1]));
+            }
+        }
+
+        public List<String> labels() {
+            return labels;
+        }
+
+        int size() {
+            return bounds.length;
+        }
+
+        String label(int bucket) {
+            return labels.get(bucket);
+        }
+
+        double lower(int bucket) {
+            return bounds[bucket];
+        }
+
+        double upper(int bucket) {
+            return bucket == bounds.length - 1 ? Double.POSITIVE_INFINITY : bounds[bucket + 1];
+        }
+
+        int indexOf(double value) {
+            for (int b = bounds.length - 1; b >= 0; b--) {
+                if (value >= bounds[b])
+                    return b;
+            }
+
+            return -1;
+        }
+
+        private static String format(double bound) {
+            return bound == Math.rint(bound) ? Long.toString((long) bound) : Double.toString(bound);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards.catalog;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Attribute filters on a catalog listing, as given in the request's query string. Ranges are inclusive and either
+ * end may be left open. Bucket filters match items in any of the listed buckets.
+ *
+ * @param minPoints     Lowest points price, from "minPoints"
+ * @param maxPoints     Highest points price, from "maxPoints"
+ * @param minUsdPrice   Lowest USD price, from "minUsdPrice"
+ * @param maxUsdPrice   Highest USD price, from "maxUsdPrice"
+ * @param minRating     Lowest rating, from "minRating"
+ * @param weight        Weight buckets, from a comma separated "weight" list of {@link CatalogFacets#WEIGHT_BUCKETS} labels
+ * @param size          Size buckets by largest dimension, from a comma separated "size" list of
+ *                      {@link CatalogFacets#SIZE_BUCKETS} labels
+ */
+public record CatalogFilter(Long minPoints, Long maxPoints, BigDecimal minUsdPrice, BigDecimal maxUsdPrice,
+                            Float minRating, List<String> weight, List<String> size) {
+
+    /**
+     * Reads the filters from query string parameters.
+     *
+     * @param params    The query string parameters, may be null
+     * @return  The filters, or null if the request has none and did not ask for facet counts with "facets=true"
+     * @throws IllegalArgumentException If a value is malformed or names an unknown bucket
+     */
+    public static CatalogFilter parse(Map<String, String> params) {
+        if (params == null)
+            return null;
+
+        CatalogFilter filter = new CatalogFilter(
+                parseLong(params.get("minPoints")),
+                parseLong(params.get("maxPoints")),
+                parseDecimal(params.get("minUsdPrice")),
+                parseDecimal(params.get("maxUsdPrice")),
+                params.get("minRating") == null ? null : Float.parseFloat(params.get("minRating")),
+                parseBuckets(params.get("weight"), CatalogFacets.WEIGHT_BUCKETS),
+                parseBuckets(params.get("size"), CatalogFacets.SIZE_BUCKETS));
+
+        if (filter.equals(new CatalogFilter(null, null, null, null, null, List.of(), List.of()))
+                && !"true".equalsIgnoreCase(params.get("facets")))
+            return null;
+
+        return filter;
+    }
+
+    private static Long parseLong(String value) {
+        return value == null ? null : Long.parseLong(value);
+    }
+
+    private static BigDecimal parseDecimal(String value) {
+        return value == null ? null : new BigDecimal(value);
+    }
+
+    private static List<String> parseBuckets(String value, CatalogFacets.Buckets buckets) {
+        if (value == null || value.isBlank())
+            return List.of();
+
+        List<String> labels = Arrays.stream(value.split(",")).map(String::trim).distinct().sorted().toList();
+        for (String label : labels) {
+            if (!buckets.labels().contains(label))
+                throw new IllegalArgumentException("Unknown bucket " + label);
+        }
+
+        return labels;
+    }
+}
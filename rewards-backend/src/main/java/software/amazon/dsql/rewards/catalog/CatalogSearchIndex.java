@@ -0,0 +1,229 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards.catalog;
+
+import software.amazon.dsql.rewards.model.CatalogItem;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+
+/**
+ * An immutable inverted index over catalog item names, descriptions and SKUs. Terms are kept sorted so that a
+ * query term can also match every indexed term it is a prefix of, which is what typeahead needs. A new index is
+ * derived from the previous one by re-indexing only the items whose text changed; posting lists of untouched
+ * terms are shared between the two.
+ */
+public class CatalogSearchIndex {
+    static final CatalogSearchIndex EMPTY = new CatalogSearchIndex(Map.of(), new TreeMap<>());
+
+    private static final float NAME_WEIGHT = 3f;
+    private static final float SKU_WEIGHT = 3f;
+    private static final float DESCRIPTION_WEIGHT = 1f;
+    private static final float PREFIX_MATCH_FACTOR = 0.5f;  // A prefix match counts half as much as the whole term
+    private static final int MIN_PREFIX_LENGTH = 2;         // Shorter query terms only match whole terms
+
+    private final Map<UUID, Document> documents;
+    private final TreeMap<String, Map<UUID, Float>> postings;
+
+
+    private CatalogSearchIndex(Map<UUID, Document> documents, TreeMap<String, Map<UUID, Float>> postings) {
+        this.documents = documents;
+        this.postings = postings;
+    }
+
+    /**
+     * Returns an index over the given items, reusing this index's entries for items whose text is unchanged.
+     * Items missing from the collection are dropped from the index.
+     *
+     * @param items All catalog items
+     * @return  The updated index, or this one if nothing changed
+     */
+    public CatalogSearchIndex update(Collection<CatalogItem> items) {
+        Map<UUID, Document> newDocuments = new HashMap<>(items.size() * 2);
+        TreeMap<String, Map<UUID, Float>> newPostings = new TreeMap<>(postings);
+        Set<String> copied = new HashSet<>();
+        boolean changed = false;
+
+        for (CatalogItem item : items) {
+            Document previous = documents.get(item.getId());
+            if (previous != null && previous.hasSameText(item)) {
+                newDocuments.put(item.getId(), previous);
+                continue;
+            }
+
+            if (previous != null) {
+                removeTerms(item.getId(), previous, newPostings, copied);
+            }
+
+            Document document = Document.of(item);
+            for (Map.Entry<String, Float> term : document.terms().entrySet()) {
+                posting(term.getKey(), newPostings, copied).put(item.getId(), term.getValue());
+            }
+            newDocuments.put(item.getId(), document);
+            changed = true;
+        }
+
+        for (Map.Entry<UUID, Document> entry : documents.entrySet()) {
+            if (!newDocuments.containsKey(entry.getKey())) {
+                removeTerms(entry.getKey(), entry.getValue(), newPostings, copied);
+                changed = true;
+            }
+        }
+
+        return changed ? new CatalogSearchIndex(newDocuments, newPostings) : this;
+    }
+
+    /**
+     * Scores the items matching every term of the query. Each query term contributes the best weight among the
+     * indexed terms it matches, scaled by how rare the matched term is.
+     *
+     * @param query The search text
+     * @return  Relevance score by item id, empty if the query has no terms or nothing matches
+     */
+    public Map<UUID, Float> search(String query) {
+        List<String> queryTerms = tokenize(query).stream().distinct().toList();
+        Map<UUID, Float> scores = null;
+
+        for (String queryTerm : queryTerms) {
+            Map<UUID, Float> termScores = new HashMap<>();
+
+            Map<String, Map<UUID, Float>> matches = queryTerm.length() < MIN_PREFIX_LENGTH
+                    ? single(queryTerm)
+                    : postings.subMap(queryTerm, true, queryTerm + Character.MAX_VALUE, false);
+
+            for (Map.Entry<String, Map<UUID, Float>> match : matches.entrySet()) {
+                float factor = match.getKey().equals(queryTerm) ? 1f : PREFIX_MATCH_FACTOR;
+                float idf = (float) Math.log(1d + (double) documents.size() / match.getValue().size());
+
+                for (Map.Entry<UUID, Float> posting : match.getValue().entrySet()) {
+                    if (scores == null || scores.containsKey(posting.getKey())) {
+                        termScores.merge(posting.getKey(), posting.getValue() * factor * idf, Math::max);
+                    }
+                }
+            }
+
+            if (scores != null) {
+                for (Map.Entry<UUID, Float> termScore : termScores.entrySet()) {
+                    termScore.setValue(termScore.getValue() + scores.get(termScore.getKey()));
+                }
+            }
+            scores = termScores;
+
+            if (scores.isEmpty())
+                break;
+        }
+
+        return scores == null ? Map.of() : scores;
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    /**
+     * Splits text into lower case runs of letters and digits.
+     *
+     * @param text  Text to split, may be null
+     * @return  The terms in order of appearance
+     */
+    static List<String> tokenize(String text) {
+        if (text == null)
+            return List.of();
+
+        List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean termChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            } else if (!termChar && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+
+        return terms;
+    }
+
+    private Map<String, Map<UUID, Float>> single(String term) {
+        Map<UUID, Float> posting = postings.get(term);
+        return posting == null ? Map.of() : Map.of(term, posting);
+    }
+
+    private static void removeTerms(UUID id, Document document, TreeMap<String, Map<UUID, Float>> postings, Set<String> copied) {
+        for (String term : document.terms().keySet()) {
+            Map<UUID, Float> posting = posting(term, postings, copied);
+            posting.remove(id);
+            if (posting.isEmpty())
+                postings.remove(term);
+        }
+    }
+
+    /**
+     * Returns the term's posting list for modification, copying it first if it is still shared with the index
+     * being updated.
+     */
+    private static Map<UUID, Float> posting(String term, TreeMap<String, Map<UUID, Float>> postings, Set<String> copied) {
+        Map<UUID, Float> posting = postings.get(term);
+        if (posting == null) {
+            posting = new HashMap<>();
+            postings.put(term, posting);
+            copied.add(term);
+        } else if (copied.add(term)) {
+            posting = new HashMap<>(posting);
+            postings.put(term, posting);
+        }
+
+        return posting;
+    }
+
+    /**
+     * The indexed text of one item and the weight of each of its terms, summed over the fields it appears in.
+     */
+    private record Document(String name, String description, String sku, Map<String, Float> terms) {
+
+        static Document of(CatalogItem item) {
+            Map<String, Float> terms = new HashMap<>();
+            addField(terms, item.getName(), NAME_WEIGHT);
+            addField(terms, item.getDescription(), DESCRIPTION_WEIGHT);
+            addField(terms, item.getSku(), SKU_WEIGHT);
+
+            return new Document(item.getName(), item.getDescription(), item.getSku(), terms);
+        }
+
+        private static void addField(Map<String, Float> terms, String text, float weight) {
+            for (String term : new HashSet<>(tokenize(text))) {
+                terms.merge(term, weight, Float::sum);
+            }
+        }
+
+        boolean hasSameText(CatalogItem item) {
+            return Objects.equals(name, item.getName()) && Objects.equals(description, item.getDescription())
+                    && Objects.equals(sku, item.getSku());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards.catalog;
+
+import software.amazon.dsql.rewards.model.CatalogItem;
+
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+
+/**
+ * An immutable, in-memory copy of the catalog with every item list the API can return already sorted. Each sort
+ * field has one ascending index array over the whole catalog and one per category; descending lists walk the same
+ * arrays backwards, which also puts nulls first just as the database does. A {@link CatalogSearchIndex} over the
+ * item text is carried along for search, and
+ * {@link CatalogFacets} bitmaps for attribute filters.
+ */
+public class CatalogSnapshot {
+    public static final List<String> SORT_FIELDS = List.of("name", "usd_price", "points_price", "rating");
+    public static final String RELEVANCE = "relevance";
+
+    // Ties are broken on id so that every listing has a strict order for cursors to resume from
+    private static final Map<String, Comparator<CatalogItem>> comparators = Map.of(
+            "name", Comparator.comparing(CatalogItem::getName, Comparator.nullsLast(Comparator.<String>naturalOrder()))
+                    .thenComparing(CatalogItem::getId),
+            "usd_price", Comparator.comparing(CatalogItem::getUsdPrice, Comparator.nullsLast(Comparator.<BigDecimal>naturalOrder()))
+                    .thenComparing(CatalogItem::getId),
+            "points_price", Comparator.comparingLong(CatalogItem::getPointsPrice).thenComparing(CatalogItem::getId),
+            "rating", Comparator.comparingDouble(CatalogItem::getRating).thenComparing(CatalogItem::getId));
+
+    private final CatalogItem[] items;
+    private final Map<UUID, CatalogItem> itemsById;
+    private final Map<String, int[]> allViews = new HashMap<>();
+    private final Map<String, Map<String, int[]>> categoryViews = new HashMap<>();
+    private final CatalogSearchIndex searchIndex;
+    private final CatalogFacets facets;
+    private final long version;
+
+
+    public CatalogSnapshot(Collection<CatalogItem> catalogItems, long version) {
+        this(catalogItems, version, null);
+    }
+
+    /**
+     * Builds a snapshot whose search index is derived from the previous snapshot's, so only items with changed
+     * text are re-indexed.
+     *
+     * @param catalogItems  All catalog items
+     * @param version       Version number of the snapshot
+     * @param previous      The snapshot being replaced, or null
+     */
+    public CatalogSnapshot(Collection<CatalogItem> catalogItems, long version, CatalogSnapshot previous) {
+        this.items = catalogItems.toArray(new CatalogItem[0]);
+        this.version = version;
+        this.searchIndex = (previous == null ? CatalogSearchIndex.EMPTY : previous.searchIndex).update(catalogItems);
+
+        itemsById = new HashMap<>(items.length * 2);
+        Map<String, List<Integer>> postings = new HashMap<>();
+        for (int i = 0; i < items.length; i++) {
+            itemsById.put(items[i].getId(), items[i]);
+            if (items[i].getCategory() != null) {
+                postings.computeIfAbsent(items[i].getCategory(), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        for (String sortField : SORT_FIELDS) {
+            Comparator<CatalogItem> comparator = comparators.get(sortField);
+
+            int[] all = new int[items.length];
+            for (int i = 0; i < all.length; i++)
+                all[i] = i;
+            allViews.put(sortField, sort(all, comparator));
+
+            for (Map.Entry<String, List<Integer>> posting : postings.entrySet()) {
+                int[] members = posting.getValue().stream().mapToInt(Integer::intValue).toArray();
+                categoryViews.computeIfAbsent(posting.getKey(), k -> new HashMap<>()).put(sortField, sort(members, comparator));
+            }
+        }
+
+        facets = new CatalogFacets(items, allViews);
+    }
+
+    /**
+     * Returns one page of a listing, starting after the cursor's position. Because every listing is kept sorted,
+     * a page costs a binary search for the cursor plus the items on it, however large the catalog.
+     *
+     * @param sortField One of {@link #SORT_FIELDS}
+     * @param sortOrder "asc" or "desc"
+     * @param category  Category to filter on, or null for all items
+     * @param filter    Attribute filters, or null for none. When given, the page also carries facet counts and
+     *                  the listing is walked past items that do not match.
+     * @param cursor    Position of the last item on the previous page, or null for the first page
+     * @param limit     Maximum number of items on the page
+     * @return  The page
+     */
+    public CatalogPage page(String sortField, String sortOrder, String category, CatalogFilter filter,
+                            CatalogCursor cursor, int limit) {
+        int[] view = getView(sortField, category);
+        boolean reversed = "desc".equals(sortOrder);
+
+        int start = 0;
+        if (cursor != null) {
+            if (!cursor.sortField().equals(sortField))
+                throw new IllegalArgumentException("Invalid cursor");
+
+            // Ascending pages continue with the first item above the cursor, descending ones with the last below it
+            CatalogItem key = cursor.toKey();
+            Comparator<CatalogItem> comparator = comparators.get(sortField);
+            start = reversed ? view.length - search(view, key, comparator, false) : search(view, key, comparator, true);
+        }
+
+        if (filter == null) {
+            int end = (int) Math.min(view.length, (long) start + limit);
+            List<CatalogItem> pageItems = new SortedView(items, view, reversed).subList(start, end);
+            CatalogCursor next = end < view.length ? CatalogCursor.after(sortField, pageItems.getLast()) : null;
+
+            return new CatalogPage(pageItems, next, null);
+        }
+
+        CatalogFacets.Result result = facets.apply(category, filter);
+        BitSet matches = result.matches();
+
+        List<CatalogItem> pageItems = new ArrayList<>(Math.min(limit, matches.cardinality()));
+        boolean more = false;
+        for (int p = start; p < view.length; p++) {
+            int index = view[reversed ? view.length - 1 - p : p];
+            if (matches.get(index)) {
+                if (pageItems.size() == limit) {
+                    more = true;
+                    break;
+                }
+                pageItems.add(items[index]);
+            }
+        }
+
+        CatalogCursor next = more ? CatalogCursor.after(sortField, pageItems.getLast()) : null;
+        return new CatalogPage(pageItems, next, result.counts());
+    }
+
+    /**
+     * Searches item names, descriptions and SKUs. Every term of the query must match a term of the item, either
+     * whole or as a prefix. Only the top results are kept while scanning the matches, so the cost of ordering
+     * grows with the limit rather than with the number of matches.
+     *
+     * @param query     The search text
+     * @param category  Category to filter on, or null for all items
+     * @param sortField {@link #RELEVANCE} or one of {@link #SORT_FIELDS}
+     * @param sortOrder "asc" or "desc", ignored when sorting by relevance which is always best first
+     * @param limit     Maximum number of items to return
+     * @return  The matching items in the requested order
+     */
+    public List<CatalogItem> search(String query, String category, String sortField, String sortOrder, int limit) {
+        Map<UUID, Float> scores = searchIndex.search(query);
+
+        Comparator<CatalogItem> order;
+        if (RELEVANCE.equals(sortField)) {
+            order = Comparator.<CatalogItem>comparingDouble(item -> -scores.get(item.getId())).thenComparing(comparators.get("name"));
+        } else if (comparators.containsKey(sortField)) {
+            order = "desc".equals(sortOrder) ? comparators.get(sortField).reversed() : comparators.get(sortField);
+        } else {
+            throw new IllegalArgumentException("Unsupported sort field " + sortField);
+        }
+
+        // Keep the best 'limit' matches in a heap whose head is the worst of them
+        PriorityQueue<CatalogItem> top = new PriorityQueue<>(Math.min(limit, scores.size()) + 1, order.reversed());
+        for (UUID id : scores.keySet()) {
+            CatalogItem item = itemsById.get(id);
+            if (item == null || (category != null && !category.equals(item.getCategory())))
+                continue;
+
+            top.add(item);
+            if (top.size() > limit)
+                top.poll();
+        }
+
+        List<CatalogItem> results = new ArrayList<>(top);
+        results.sort(order);
+        return results;
+    }
+
+    public CatalogItem get(UUID id) {
+        return itemsById.get(id);
+    }
+
+    public Collection<CatalogItem> getItems() {
+        return Arrays.asList(items);
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    int[] getView(String sortField, String category) {
+        if (!comparators.containsKey(sortField))
+            throw new IllegalArgumentException("Unsupported sort field " + sortField);
+
+        if (category == null)
+            return allViews.get(sortField);
+
+        Map<String, int[]> views = categoryViews.get(category);
+        return views == null ? new int[0] : views.get(sortField);
+    }
+
+    CatalogItem itemAt(int index) {
+        return items[index];
+    }
+
+    /**
+     * Binary search of an ascending view for the first item above the key, or at or above it if not strict.
+     */
+    private int search(int[] view, CatalogItem key, Comparator<CatalogItem> comparator, boolean strict) {
+        int low = 0;
+        int high = view.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = comparator.compare(items[view[mid]], key);
+            if (cmp > 0 || (cmp == 0 && !strict)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        return low;
+    }
+
+    private int[] sort(int[] indexes, Comparator<CatalogItem> comparator) {
+        return Arrays.stream(indexes).boxed()
+                .sorted((a, b) -> comparator.compare(items[a], items[b]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private static class SortedView extends AbstractList<CatalogItem> {
+        private final CatalogItem[] items;
+        private final int[] view;
+        private final boolean reversed;
+
+        SortedView(CatalogItem[] items, int[] view, boolean reversed) {
+            this.items = items;
+            this.view = view;
+            this.reversed = reversed;
+        }
+
+        @Override
+        public CatalogItem get(int index) {
+            return items[view[reversed ? view.length - 1 - index : index]];
+        }
+
+        @Override
+        public int size() {
+            return view.length;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards.catalog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.dsql.rewards.ConnectionPool;
+import software.amazon.dsql.rewards.ImageUrlSigner;
+import software.amazon.dsql.rewards.PooledConnection;
+import software.amazon.dsql.rewards.model.CatalogItem;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Keeps a {@link CatalogSnapshot} of the catalog for one region, shared by all handlers in the JVM. The first
+ * request loads the whole catalog. After that, a request that finds the snapshot older than the refresh interval
+ * triggers a background refresh and is served from the current snapshot. Refreshes only read catalog rows and
+ * thumbnail URLs changed since the last one, with a full reload now and then to pick up deleted items. A new
+ * snapshot version is only built when some item actually differs from the current snapshot.
+ * <p>
+ * Incremental refreshes find changed items by catalog_items.updated_at. No handler writes catalog items, so
+ * anything that edits them must set updated_at; otherwise the edit only shows up with the next full reload.
+ * Rows committed with a timestamp at or below a mark already read are likewise left to the full reload.
+ * <p>
+ * With on-demand image URLs (see {@link ImageUrlSigner}) thumbnails are signed while loading rather than read
+ * from xpoints.image_urls. The periodic full reload then also reissues them before they expire.
+ */
+public class CatalogStore {
+    private static final Logger logger = LoggerFactory.getLogger(CatalogStore.class);
+    private static final Map<String, CatalogStore> stores = new ConcurrentHashMap<>();
+
+    private static final long DEFAULT_REFRESH_MILLIS = 60 * 1000L;
+    private static final long FULL_RELOAD_MILLIS = 15 * 60 * 1000L;
+
+    private static final String LOAD_SQL = "select ci.*, img.presigned_url thumbnail_url, img.created thumbnail_created " +
+            "from xpoints.catalog_items ci left outer join xpoints.image_urls img on ci.thumbnail_id = img.image_id and img.region = ?";
+    private static final String CHANGES_SQL = LOAD_SQL + " where ci.updated_at > ? or img.created > ?";
+    private static final String LOAD_FILES_SQL = "select ci.*, img.filename thumbnail_file, img.created thumbnail_created " +
+            "from xpoints.catalog_items ci left outer join xpoints.images img on ci.thumbnail_id = img.id";
+    private static final String FILE_CHANGES_SQL = LOAD_FILES_SQL + " where ci.updated_at > ? or img.created > ?";
+
+    private static final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "catalog-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConnectionPool connectionPool;
+    private final String region;
+    private final long refreshMillis;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ImageUrlSigner imageUrlSigner = ImageUrlSigner.isOnDemand() ? ImageUrlSigner.getInstance() : null;
+
+    private volatile CatalogSnapshot snapshot;
+    private volatile long lastRefresh;
+    private long lastFullReload;
+    private Timestamp itemsHighWater;
+    private Timestamp imagesHighWater;
+
+
+    public CatalogStore(ConnectionPool connectionPool, String region, long refreshMillis) {
+        this.connectionPool = connectionPool;
+        this.region = region;
+        this.refreshMillis = refreshMillis;
+    }
+
+    /**
+     * Returns the JVM-wide store for the pool's cluster and the given region. Handlers reading the same cluster
+     * share a store whichever pool they pass, and the store reads through the first one. The refresh interval is
+     * taken from the CATALOG_REFRESH_SECONDS environment variable when it is set.
+     *
+     * @param connectionPool    Pool to read the catalog through
+     * @param region            Region whose presigned thumbnail URLs are used
+     * @return  The shared catalog store
+     */
+    public static CatalogStore forRegion(ConnectionPool connectionPool, String region) {
+        String key = connectionPool.getClusterConfig().getJdbcUrl() + "|" + region;
+        return stores.computeIfAbsent(key, k -> {
+            long refreshMillis = DEFAULT_REFRESH_MILLIS;
+            String seconds = System.getenv("CATALOG_REFRESH_SECONDS");
+            if (seconds != null) {
+                try {
+                    refreshMillis = Long.parseLong(seconds) * 1000L;
+                } catch (NumberFormatException ignored) {} // Just take the default value
+            }
+
+            return new CatalogStore(connectionPool, region, refreshMillis);
+        });
+    }
+
+    /**
+     * Returns the current snapshot, loading it on first use and starting a background refresh if it is stale.
+     *
+     * @return  The catalog snapshot
+     * @throws SQLException For database errors during the initial load
+     */
+    public CatalogSnapshot getSnapshot() throws SQLException {
+        CatalogSnapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    refresh();
+                }
+                return snapshot;
+            }
+        }
+
+        if (System.currentTimeMillis() - lastRefresh >= refreshMillis && refreshing.compareAndSet(false, true)) {
+            refresher.execute(() -> {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    logger.warn("Unable to refresh catalog snapshot", e);
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+
+        return current;
+    }
+
+    /**
+     * Brings the snapshot up to date, reading only changed rows unless a full reload is due.
+     *
+     * @throws SQLException For database errors reading the catalog
+     */
+    public synchronized void refresh() throws SQLException {
+        long now = System.currentTimeMillis();
+        boolean full = snapshot == null || now - lastFullReload >= FULL_RELOAD_MILLIS;
+
+        CatalogSnapshot current = snapshot;
+        Map<UUID, CatalogItem> items = new LinkedHashMap<>();
+        if (!full) {
+            for (CatalogItem item : snapshot.getItems()) {
+                items.put(item.getId(), item);
+            }
+        }
+
+        int read = 0;
+        int changed = 0;
+        Timestamp itemsMark = full ? null : itemsHighWater;
+        Timestamp imagesMark = full ? null : imagesHighWater;
+
+        try (PooledConnection pooled = connectionPool.borrow()) {
+            int param = 1;
+            PreparedStatement stmt;
+            if (imageUrlSigner != null) {
+                stmt = pooled.prepareStatement(full ? LOAD_FILES_SQL : FILE_CHANGES_SQL);
+            } else {
+                stmt = pooled.prepareStatement(full ? LOAD_SQL : CHANGES_SQL);
+                stmt.setString(param++, region);
+            }
+            if (!full) {
+                stmt.setTimestamp(param++, itemsMark);
+                stmt.setTimestamp(param, imagesMark);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    CatalogItem item = toCatalogItem(rs);
+                    items.put(item.getId(), item);
+                    read++;
+                    if (current == null || !sameItem(item, current.get(item.getId())))
+                        changed++;
+
+                    itemsMark = later(itemsMark, rs.getTimestamp("updated_at"));
+                    imagesMark = later(imagesMark, rs.getTimestamp("thumbnail_created"));
+                }
+            }
+        }
+
+        // A full reload that finds fewer items than the snapshot holds has found deleted ones
+        if (current == null || changed > 0 || items.size() != current.size()) {
+            long version = current == null ? 1 : current.getVersion() + 1;
+            snapshot = new CatalogSnapshot(items.values(), version, current);
+            logger.info("Catalog snapshot version {} built with {} items ({} read, {} changed)", version, items.size(), read, changed);
+        }
+
+        itemsHighWater = itemsMark == null ? new Timestamp(0) : itemsMark;
+        imagesHighWater = imagesMark == null ? new Timestamp(0) : imagesMark;
+        lastRefresh = now;
+        if (full)
+            lastFullReload = now;
+    }
+
+    private static Timestamp later(Timestamp current, Timestamp candidate) {
+        if (candidate == null)
+            return current;
+        if (current == null || candidate.after(current))
+            return candidate;
+        return current;
+    }
+
+    private static boolean sameItem(CatalogItem a, CatalogItem b) {
+        return b != null
+                && Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getDescription(), b.getDescription())
+                && Objects.equals(a.getCategory(), b.getCategory())
+                && Objects.equals(a.getUsdPrice(), b.getUsdPrice())
+                && a.getPointsPrice() == b.getPointsPrice()
+                && a.getRating() == b.getRating()
+                && Objects.equals(a.getSku(), b.getSku())
+                && a.getWeight() == b.getWeight()
+                && a.getWidth() == b.getWidth()
+                && a.getHeight() == b.getHeight()
+                && a.getDepth() == b.getDepth()
+                && Objects.equals(a.getThumbnailUrl(), b.getThumbnailUrl());
+    }
+
+    private CatalogItem toCatalogItem(ResultSet rs) throws SQLException {
+        CatalogItem catalogItem = new CatalogItem();
+
+        catalogItem.setId((UUID) rs.getObject("id"));
+        catalogItem.setName(rs.getString("name"));
+        catalogItem.setDescription(rs.getString("description"));
+        catalogItem.setCategory(rs.getString("category"));
+        catalogItem.setUsdPrice(rs.getBigDecimal("usd_price"));
+        catalogItem.setPointsPrice(rs.getInt("points_price"));
+        catalogItem.setRating(rs.getFloat("rating"));
+        catalogItem.setSku(rs.getString("sku"));
+        catalogItem.setWeight(rs.getFloat("weight"));
+        catalogItem.setWidth(rs.getFloat("width"));
+        catalogItem.setHeight(rs.getFloat("height"));
+        catalogItem.setDepth(rs.getFloat("depth"));
+        catalogItem.setThumbnailUrl(imageUrlSigner == null ? rs.getString("thumbnail_url")
+                                                           : imageUrlSigner.sign(rs.getString("thumbnail_file")));
+
+        return catalogItem;
+    }
+}
@@ -28,7 +28,8 @@ import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
 import software.amazon.awssdk.services.dsql.DsqlClient;
-import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
 import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
 import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
 import software.amazon.awssdk.services.sts.StsClient;
@@ -38,10 +39,25 @@ import software.amazon.dsql.rewards.DsqlLib;
 import software.amazon.lambda.powertools.cloudformation.AbstractCustomResourceHandler;
 import software.amazon.lambda.powertools.cloudformation.Response;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.*;
-
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+
+/**
+ * Queues every customer for registration in Cognito. Customers are read in primary key order, one page at a time.
+ * Their messages are sent through the async SQS client with up to {@link #MAX_IN_FLIGHT} batches outstanding,
+ * and the reader waits whenever that many are in flight. After each page whose messages have all been sent, and
+ * all pages before it, the last customer id is saved to xpoints.job_checkpoints under a key made from the stack id
+ * and logical resource id. A run that is close to the Lambda timeout stops early and fails the resource. Retrying
+ * the stack operation, for instance after creating the stack with rollback disabled, sends the request again for
+ * the same resource, which resumes from the checkpoint. Deleting the resource removes its checkpoint, and a new
+ * stack always starts from the first customer.
+ */
 public class QueueCustomersForRegistrationFunction extends AbstractCustomResourceHandler {
     private static final Logger logger = LoggerFactory.getLogger(QueueCustomersForRegistrationFunction.class);
 
@@ -49,6 +65,12 @@ public class QueueCustomersForRegistrationFunction extends AbstractCustomResourc
     private static final double JITTER_MAX = 1000 * 10d;
     private static final int MAX_ATTEMPTS = 5;
 
+    private static final int PAGE_SIZE = 1000;
+    private static final int SQS_BATCH_SIZE = 10;      // The most SendMessageBatch accepts
+    private static final int MAX_IN_FLIGHT = 32;
+    private static final long STOP_MARGIN_MILLIS = 30 * 1000L;
+    private static final String JOB_NAME = "customer_registration";
+
 
     public QueueCustomersForRegistrationFunction() {
         super();
@@ -62,9 +84,34 @@ public class QueueCustomersForRegistrationFunction extends AbstractCustomResourc
 
     @Override
     protected Response create(CloudFormationCustomResourceEvent event, Context context) {
-        String physicalResourceId = "cognito-add-rewards-users-" + UUID.randomUUID();
+        return queueCustomers(event, "cognito-add-rewards-users-" + UUID.randomUUID(), context);
+    }
+
+    @Override
+    protected Response update(CloudFormationCustomResourceEvent event, Context context) {
+        return queueCustomers(event, event.getPhysicalResourceId(), context);
+    }
+
+    @Override
+    protected Response delete(CloudFormationCustomResourceEvent event, Context context) {
+        // A checkpoint left behind must not keep the stack from being deleted
+        Region myRegion = DefaultAwsRegionProviderChain.builder().build().getRegion();
+        Connection conn = null;
+        try {
+            conn = connect(myRegion);
+            clearCheckpoint(conn, jobName(event), myRegion.id());
+        } catch (Exception e) {
+            logger.warn("Unable to clear the checkpoint of " + event.getPhysicalResourceId(), e);
+        } finally {
+            DatabaseUtil.closeQuietly(conn);
+        }
+
+        return Response.success(event.getPhysicalResourceId());
+    }
+
+    private Response queueCustomers(CloudFormationCustomResourceEvent event, String physicalResourceId, Context context) {
         try {
-            Map<String, String> responseAttrs = Map.of("Password", processUsers());
+            Map<String, String> responseAttrs = Map.of("Password", processUsers(jobName(event), context));
             return Response.builder()
                     .value(responseAttrs)
                     .status(Response.Status.SUCCESS)
@@ -76,27 +123,127 @@ public class QueueCustomersForRegistrationFunction extends AbstractCustomResourc
         }
     }
 
-    @Override
-    protected Response update(CloudFormationCustomResourceEvent event, Context context) {
-        return create(event, context);
+    /**
+     * Names the checkpoint after the stack and logical resource, which stay the same when CloudFormation retries a
+     * create, unlike the physical resource id.
+     */
+    private static String jobName(CloudFormationCustomResourceEvent event) {
+        String resource = event.getStackId() + "/" + event.getLogicalResourceId();
+        return JOB_NAME + "/" + UUID.nameUUIDFromBytes(resource.getBytes(StandardCharsets.UTF_8));
     }
 
-    @Override
-    protected Response delete(CloudFormationCustomResourceEvent event, Context context) {
-        String physicalResourceId = "cognito-add-rewards-users-" + UUID.randomUUID();
-        return Response.success(physicalResourceId);
-    }
-
-    private String processUsers() {
+    /**
+     * @param jobName Name of the checkpoint to resume from and save to
+     * @return The password given to the queued customers
+     * @throws IllegalStateException If the run stopped before every customer was queued
+     */
+    private String processUsers(String jobName, Context context) {
         String password = makePassword();
-        String localClusterEndpoint = System.getenv("CLUSTER_ENDPOINT");
-        String dbUsername = System.getenv("DB_USERNAME");
-        String dbName = System.getenv("DB_NAME");
         String queueUrl = System.getenv("QUEUE_URL");
 
         // what is my region
         Region myRegion = DefaultAwsRegionProviderChain.builder().build().getRegion();
 
+        Gson gson = new Gson();
+        String region = myRegion.id();
+
+        Connection conn = null;
+
+        try {
+            conn = connect(myRegion);
+
+            UUID after = loadCheckpoint(conn, jobName, region);
+            if (after != null) {
+                logger.info("Resuming after customer " + after);
+            } else {
+                after = new UUID(0L, 0L);
+            }
+
+            Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+            Deque<Page> pending = new ArrayDeque<>();
+            boolean complete = false;
+            int count = 0;
+
+            try (SqsAsyncClient sqs = SqsAsyncClient.create();
+                 PreparedStatement pageStmt = conn.prepareStatement("select id, username, email from xpoints.customers where id > ? order by id limit ?")) {
+
+                while (context.getRemainingTimeInMillis() > STOP_MARGIN_MILLIS) {
+                    pageStmt.setObject(1, after);
+                    pageStmt.setInt(2, PAGE_SIZE);
+
+                    List<CompletableFuture<Void>> sends = new ArrayList<>();
+                    List<SendMessageBatchRequestEntry> messages = new ArrayList<>();
+                    int rows = 0;
+
+                    try (ResultSet rs = pageStmt.executeQuery()) {
+                        while (rs.next()) {
+                            rows++;
+                            after = (UUID) rs.getObject("id");
+
+                            JsonObject data = new JsonObject();
+                            data.addProperty("username", rs.getString("username"));
+                            data.addProperty("email", rs.getString("email"));
+                            data.addProperty("password", password);
+
+                            messages.add(SendMessageBatchRequestEntry.builder()
+                                    .messageBody(gson.toJson(data))
+                                    .id(Integer.toString(++count))
+                                    .build());
+
+                            if (messages.size() == SQS_BATCH_SIZE) {
+                                sends.add(send(sqs, queueUrl, messages, inFlight));
+                                messages = new ArrayList<>();
+                            }
+                        }
+                    }
+
+                    if (!messages.isEmpty()) {
+                        sends.add(send(sqs, queueUrl, messages, inFlight));
+                    }
+
+                    if (rows > 0) {
+                        pending.addLast(new Page(after, CompletableFuture.allOf(sends.toArray(CompletableFuture<?>[]::new))));
+                        checkpoint(conn, jobName, region, pending);
+                    }
+
+                    if (rows < PAGE_SIZE) {
+                        complete = true;
+                        break;
+                    }
+                }
+
+                // Wait for the batches still in flight before the final checkpoint
+                for (Page page : pending) {
+                    page.sent().join();
+                }
+                checkpoint(conn, jobName, region, pending);
+            }
+
+            if (!complete)
+                throw new IllegalStateException("Stopped before timeout after queueing " + count
+                        + " customers, retrying the stack operation resumes from " + jobName);
+
+            clearCheckpoint(conn, jobName, region);
+            logger.info("Queued " + count + " customers for registration");
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            DatabaseUtil.closeQuietly(conn);
+        }
+
+
+        return password;
+    }
+
+    /**
+     * Opens a connection to the cluster as DB_USERNAME, retrying concurrency conflicts.
+     */
+    private Connection connect(Region myRegion) {
+        String localClusterEndpoint = System.getenv("CLUSTER_ENDPOINT");
+        String dbUsername = System.getenv("DB_USERNAME");
+        String dbName = System.getenv("DB_NAME");
+
         DsqlClient api = DsqlClient.builder()
                 .region(myRegion)
                 .credentialsProvider(DefaultCredentialsProvider.create())
@@ -104,9 +251,6 @@ public class QueueCustomersForRegistrationFunction extends AbstractCustomResourc
 
         ClusterConfig clusterConfig = new ClusterConfig(localClusterEndpoint, myRegion, api, dbName, dbUsername);
 
-        SqsClient sqs = SqsClient.builder().build();
-        Gson gson = new Gson();
-
         Properties props = new Properties();
 
         // Set user for the connection
@@ -118,73 +262,100 @@ public class QueueCustomersForRegistrationFunction extends AbstractCustomResourc
         // Note that verify-full does not work, only allow, prefer, require and verify-ca are supported.
         props.setProperty("sslmode", SslMode.REQUIRE.name());
 
-        Connection conn = null;
+        int attempt = 0;
+        while (true) {
+            if (++attempt > 1)
+                backoff(attempt);
 
-        try {
-            int attempt = 0;
-            while (attempt++ < MAX_ATTEMPTS) {
-                if (attempt > 1)
-                    backoff(attempt);
-
-                try {
-                    conn = DriverManager.getConnection(clusterConfig.getJdbcUrl(), props);
-                    attempt = MAX_ATTEMPTS + 1;
-                } catch (SQLException e) {
-                    if (attempt == MAX_ATTEMPTS || !DsqlLib.isConcurrencyConflict(e)) {
-                        logger.error("Failing at attempt: " + attempt + " with SQL State " + e.getSQLState(), e);
-                        throw new RuntimeException(e);
-                    } else {
-                        logger.warn("Concurrency collision on attempt " + attempt);
-                    }
+            try {
+                return DriverManager.getConnection(clusterConfig.getJdbcUrl(), props);
+            } catch (SQLException e) {
+                if (attempt == MAX_ATTEMPTS || !DsqlLib.isConcurrencyConflict(e)) {
+                    logger.error("Failing at attempt: " + attempt + " with SQL State " + e.getSQLState(), e);
+                    throw new RuntimeException(e);
+                } else {
+                    logger.warn("Concurrency collision on attempt " + attempt);
                 }
             }
+        }
+    }
 
-            try (Statement stmt = conn.createStatement();
-                 ResultSet rs = stmt.executeQuery("select username, email from xpoints.customers")) {
+    /**
+     * Sends one batch once fewer than {@link #MAX_IN_FLIGHT} are outstanding, so the reader can never get further
+     * ahead of SQS than that.
+     */
+    private CompletableFuture<Void> send(SqsAsyncClient sqs, String queueUrl, List<SendMessageBatchRequestEntry> messages,
+                                         Semaphore inFlight) {
+        inFlight.acquireUninterruptibly();
+        return sendBatch(sqs, queueUrl, messages, 1).whenComplete((result, e) -> inFlight.release());
+    }
 
-                List<SendMessageBatchRequestEntry> messages = new ArrayList<>();
+    /**
+     * Sends a batch, sending again with backoff any entries SQS reports as failed.
+     */
+    private CompletableFuture<Void> sendBatch(SqsAsyncClient sqs, String queueUrl, List<SendMessageBatchRequestEntry> messages,
+                                              int attempt) {
+        SendMessageBatchRequest batch = SendMessageBatchRequest.builder()
+                .entries(messages)
+                .queueUrl(queueUrl)
+                .build();
 
-                int count = 0;
-                while (rs.next()) {
-                    JsonObject data = new JsonObject();
-                    data.addProperty("username", rs.getString("username"));
-                    data.addProperty("email", rs.getString("email"));
-                    data.addProperty("password", password);
+        return sqs.sendMessageBatch(batch).thenCompose(response -> {
+            if (response.failed().isEmpty())
+                return CompletableFuture.completedFuture(null);
 
-                    messages.add(SendMessageBatchRequestEntry.builder()
-                            .messageBody(gson.toJson(data))
-                            .id(Integer.toString(++count))
-                            .build());
+            if (attempt == MAX_ATTEMPTS) {
+                BatchResultErrorEntry error = response.failed().getFirst();
+                return CompletableFuture.failedFuture(new RuntimeException(response.failed().size()
+                        + " messages could not be queued: " + error.code() + " " + error.message()));
+            }
 
-                    if (messages.size() == 10) {
-                        SendMessageBatchRequest batch = SendMessageBatchRequest.builder()
-                                .entries(messages)
-                                .queueUrl(queueUrl)
-                                .build();
+            Set<String> failedIds = response.failed().stream().map(BatchResultErrorEntry::id).collect(Collectors.toSet());
+            List<SendMessageBatchRequestEntry> retry = messages.stream().filter(m -> failedIds.contains(m.id())).toList();
 
-                        sqs.sendMessageBatch(batch);
-                        messages.clear();
-                    }
-                }
+            return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(backoffMillis(attempt), TimeUnit.MILLISECONDS))
+                    .thenCompose(v -> sendBatch(sqs, queueUrl, retry, attempt + 1));
+        });
+    }
 
-                if (messages.size() > 0) {
-                    SendMessageBatchRequest batch = SendMessageBatchRequest.builder()
-                            .entries(messages)
-                            .queueUrl(queueUrl)
-                            .build();
+    /**
+     * Saves the last customer of the latest page that, along with every page before it, has been fully queued.
+     * A failed send fails the run here, leaving the checkpoint at the last page known to be queued.
+     */
+    private void checkpoint(Connection conn, String jobName, String region, Deque<Page> pending) throws SQLException {
+        UUID queued = null;
+        while (!pending.isEmpty() && pending.peekFirst().sent().isDone()) {
+            Page page = pending.pollFirst();
+            page.sent().join();
+            queued = page.lastId();
+        }
 
-                    sqs.sendMessageBatch(batch);
-                }
-            } catch (SQLException e) {
-                logger.error(e.getMessage(), e);
-                throw new RuntimeException(e);
+        if (queued != null) {
+            try (PreparedStatement stmt = conn.prepareStatement("insert into xpoints.job_checkpoints (job_name, region, checkpoint, updated_at) values (?, ?, ?, now()) on conflict (job_name, region) do update set checkpoint = excluded.checkpoint, updated_at = excluded.updated_at")) {
+                stmt.setString(1, jobName);
+                stmt.setString(2, region);
+                stmt.setString(3, queued.toString());
+                stmt.executeUpdate();
             }
-        } finally {
-            DatabaseUtil.closeQuietly(conn);
         }
+    }
 
+    private UUID loadCheckpoint(Connection conn, String jobName, String region) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("select checkpoint from xpoints.job_checkpoints where job_name = ? and region = ?")) {
+            stmt.setString(1, jobName);
+            stmt.setString(2, region);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getString("checkpoint") != null ? UUID.fromString(rs.getString("checkpoint")) : null;
+            }
+        }
+    }
 
-        return password;
+    private void clearCheckpoint(Connection conn, String jobName, String region) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("delete from xpoints.job_checkpoints where job_name = ? and region = ?")) {
+            stmt.setString(1, jobName);
+            stmt.setString(2, region);
+            stmt.executeUpdate();
+        }
     }
 
     private String makePassword() {
@@ -193,7 +364,12 @@ public class QueueCustomersForRegistrationFunction extends AbstractCustomResourc
     }
 
     private static void backoff(int attempt) {
-        long duration = (long) (Math.min(JITTER_MAX, JITTER_BASE * Math.pow(2.0d, attempt)) * Math.random());
-        try {Thread.sleep(duration);} catch (InterruptedException ignored) {}
+        try {Thread.sleep(backoffMillis(attempt));} catch (InterruptedException ignored) {}
     }
+
+    private static long backoffMillis(int attempt) {
+        return (long) (Math.min(JITTER_MAX, JITTER_BASE * Math.pow(2.0d, attempt)) * Math.random());
+    }
+
+    private record Page(UUID lastId, CompletableFuture<Void> sent) {}
 }
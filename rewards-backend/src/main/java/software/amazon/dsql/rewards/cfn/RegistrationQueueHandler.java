@@ -24,78 +24,182 @@ import com.amazonaws.services.lambda.runtime.events.SQSEvent;
 import com.google.gson.Gson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
 import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderClient;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.*;
 
+import software.amazon.dsql.rewards.AdaptiveBackoffPolicy;
+import software.amazon.dsql.rewards.TokenBucket;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+
+/**
+ * Registers queued customers in Cognito. The messages of a batch are processed concurrently on virtual threads.
+ * Each kind of Cognito call goes through its own token bucket, sized to this instance's share of the Cognito
+ * quota for that category: COGNITO_READ_RPS, COGNITO_CREATE_RPS and COGNITO_UPDATE_RPS. Throttled calls are
+ * retried with an adaptive backoff that grows while Cognito keeps throttling and shrinks again as calls succeed.
+ * The backoff starts at a few hundred milliseconds, so retries reach past the one second window the quota is
+ * counted in.
+ * Messages that still fail are reported back to SQS as batch item failures.
+ */
 public class RegistrationQueueHandler implements RequestHandler<SQSEvent, SQSBatchResponse> {
     private static final Logger logger = LoggerFactory.getLogger(RegistrationQueueHandler.class);
+    private static final Gson gson = new Gson();
 
-    private final String cognitoPoolId = System.getenv("COGNITO_POOL_ID");
+    private static final int MAX_ATTEMPTS = 5;
+    private static final double MIN_BACKOFF_MILLIS = 250d;
+    private static final double BACKOFF_STEP_MILLIS = 50d;
+    private static final String READ_BACKOFF_KEY = "cognito:read";
+    private static final String CREATE_BACKOFF_KEY = "cognito:create";
+    private static final String UPDATE_BACKOFF_KEY = "cognito:update";
+
+    private final String cognitoPoolId;
     private final CognitoIdentityProviderClient cognito;
+    private final TokenBucket readLimiter;
+    private final TokenBucket createLimiter;
+    private final TokenBucket updateLimiter;
+    private final AdaptiveBackoffPolicy backoffPolicy;
 
     public RegistrationQueueHandler() {
-        Region myRegion = DefaultAwsRegionProviderChain.builder().build().getRegion();
-        cognito = CognitoIdentityProviderClient.builder()
-                .region(myRegion)
-                .build();
+        this(CognitoIdentityProviderClient.builder()
+                        .region(DefaultAwsRegionProviderChain.builder().build().getRegion())
+                        .build(),
+                System.getenv("COGNITO_POOL_ID"),
+                new TokenBucket(getEnvDouble("COGNITO_READ_RPS", 20d), 20d),
+                new TokenBucket(getEnvDouble("COGNITO_CREATE_RPS", 10d), 10d),
+                new TokenBucket(getEnvDouble("COGNITO_UPDATE_RPS", 5d), 5d),
+                newBackoffPolicy());
+    }
+
+    RegistrationQueueHandler(CognitoIdentityProviderClient cognito, String cognitoPoolId,
+                             TokenBucket readLimiter, TokenBucket createLimiter, TokenBucket updateLimiter,
+                             AdaptiveBackoffPolicy backoffPolicy) {
+        this.cognito = cognito;
+        this.cognitoPoolId = cognitoPoolId;
+        this.readLimiter = readLimiter;
+        this.createLimiter = createLimiter;
+        this.updateLimiter = updateLimiter;
+        this.backoffPolicy = backoffPolicy;
+    }
+
+    /**
+     * Returns a backoff policy sized for Cognito throttling rather than DSQL conflicts.
+     */
+    static AdaptiveBackoffPolicy newBackoffPolicy() {
+        return new AdaptiveBackoffPolicy(MIN_BACKOFF_MILLIS, BACKOFF_STEP_MILLIS);
     }
 
     @Override
     public SQSBatchResponse handleRequest(SQSEvent sqsEvent, Context context) {
-        Gson gson = new Gson();
+        List<SQSEvent.SQSMessage> messages = sqsEvent.getRecords();
+        List<Future<?>> results = new ArrayList<>(messages.size());
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (SQSEvent.SQSMessage message : messages) {
+                results.add(executor.submit(() -> register(message)));
+            }
+        }
+
         List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
-        for (SQSEvent.SQSMessage message : sqsEvent.getRecords()) {
+        for (int i = 0; i < messages.size(); i++) {
+            SQSEvent.SQSMessage message = messages.get(i);
             try {
-                UserInfo userInfo = gson.fromJson(message.getBody(), UserInfo.class);
-
-                AdminGetUserRequest userRequest = AdminGetUserRequest.builder()
-                        .username(userInfo.username())
-                        .userPoolId(cognitoPoolId)
-                        .build();
-
-                try {
-                    cognito.adminGetUser(userRequest);
-                } catch (UserNotFoundException e) {
-                    logger.info("Creating user " + userInfo.username());
-
-                    AttributeType emailType = AttributeType.builder().name("email").value(userInfo.email()).build();
-                    Collection<AttributeType> attributes = new ArrayList<>();
-                    attributes.add(emailType);
-
-                    AdminCreateUserRequest acuReq = AdminCreateUserRequest.builder()
-                            .userPoolId(cognitoPoolId)
-                            .username(userInfo.username())
-                            .messageAction(MessageActionType.SUPPRESS)
-                            .temporaryPassword(userInfo.password())
-                            .userAttributes(attributes)
-                            .build();
-
-                    cognito.adminCreateUser(acuReq);
-
-                    AdminSetUserPasswordRequest pwdReq = AdminSetUserPasswordRequest.builder()
-                            .userPoolId(cognitoPoolId)
-                            .username(userInfo.username())
-                            .password(userInfo.password())
-                            .permanent(true)
-                            .build();
-
-                    cognito.adminSetUserPassword(pwdReq);
-                }
-            } catch (Exception e) {
-                logger.error("Error processing " + message.getMessageId(), e);
+                results.get(i).get();
+            } catch (ExecutionException | InterruptedException e) {
+                logger.error("Error processing " + message.getMessageId(), e.getCause() == null ? e : e.getCause());
                 failures.add(SQSBatchResponse.BatchItemFailure.builder().withItemIdentifier(message.getMessageId()).build());
             }
         }
 
+        logger.info("Processed " + messages.size() + " registrations, " + failures.size() + " failed");
         return SQSBatchResponse.builder().withBatchItemFailures(failures).build();
     }
 
+    private Void register(SQSEvent.SQSMessage message) throws InterruptedException {
+        UserInfo userInfo = gson.fromJson(message.getBody(), UserInfo.class);
+
+        AdminGetUserRequest userRequest = AdminGetUserRequest.builder()
+                .username(userInfo.username())
+                .userPoolId(cognitoPoolId)
+                .build();
+
+        try {
+            call(readLimiter, READ_BACKOFF_KEY, () -> cognito.adminGetUser(userRequest));
+        } catch (UserNotFoundException e) {
+            logger.info("Creating user " + userInfo.username());
+
+            AttributeType emailType = AttributeType.builder().name("email").value(userInfo.email()).build();
+            Collection<AttributeType> attributes = new ArrayList<>();
+            attributes.add(emailType);
+
+            AdminCreateUserRequest acuReq = AdminCreateUserRequest.builder()
+                    .userPoolId(cognitoPoolId)
+                    .username(userInfo.username())
+                    .messageAction(MessageActionType.SUPPRESS)
+                    .temporaryPassword(userInfo.password())
+                    .userAttributes(attributes)
+                    .build();
+
+            call(createLimiter, CREATE_BACKOFF_KEY, () -> cognito.adminCreateUser(acuReq));
+
+            AdminSetUserPasswordRequest pwdReq = AdminSetUserPasswordRequest.builder()
+                    .userPoolId(cognitoPoolId)
+                    .username(userInfo.username())
+                    .password(userInfo.password())
+                    .permanent(true)
+                    .build();
+
+            call(updateLimiter, UPDATE_BACKOFF_KEY, () -> cognito.adminSetUserPassword(pwdReq));
+        }
+
+        return null;
+    }
+
+    /**
+     * Makes a Cognito call once the limiter allows it, retrying while Cognito throttles. The backoff is kept
+     * per call category, since Cognito throttles each category against its own quota.
+     */
+    private <T> T call(TokenBucket limiter, String backoffKey, Supplier<T> request) throws InterruptedException {
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            limiter.acquire();
+            try {
+                T result = request.get();
+                backoffPolicy.onSuccess(backoffKey);
+                return result;
+            } catch (TooManyRequestsException | LimitExceededException e) {
+                if (attempt == MAX_ATTEMPTS)
+                    throw e;
+
+                backoffPolicy.onConflict(backoffKey);
+                long delay = backoffPolicy.delayMillis(backoffKey, attempt);
+                logger.warn("Cognito throttled " + backoffKey + " attempt " + attempt + ", backing off " + delay + " ms");
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    private static double getEnvDouble(String name, double defaultValue) {
+        String value = System.getenv(name);
+        if (value != null) {
+            try {
+                double parsed = Double.parseDouble(value);
+                if (parsed > 0)
+                    return parsed;
+            } catch (NumberFormatException ignored) {} // Just take the default value
+        }
+
+        return defaultValue;
+    }
+
     record UserInfo (String username, String email, String password) {}
 }
@@ -7,6 +7,7 @@ drop table if exists xpoints.catalog_items;
 drop table if exists xpoints.customers;
 drop table if exists xpoints.image_urls;
 drop table if exists xpoints.images;
+drop table if exists xpoints.job_checkpoints;
 
 drop schema if exists xpoints cascade;
 
@@ -49,7 +50,8 @@ create table xpoints.catalog_items
     width               real,
     height              real,
     depth               real,
-    thumbnail_id        uuid
+    thumbnail_id        uuid,
+    updated_at          timestamp default now()     -- Set this on every edit, or catalog snapshots only see it on their 15 minute full reload
 );
 
 create table xpoints.catalog_images
@@ -87,7 +89,8 @@ create table xpoints.transactions
     tx_description      varchar(50)
 );
 
-create index async on xpoints.transactions (customer_id);
+-- Transaction history pages are range scans on (customer_id, tx_dt), with id breaking ties between pages
+create index async on xpoints.transactions (customer_id, tx_dt, id);
 
 create table xpoints.order_items
 (
@@ -95,6 +98,8 @@ create table xpoints.order_items
     cat_item_id         uuid,
     unit_cnt            int,
     unit_points_price   int,
+    item_name           varchar(50),                -- Catalog item name and description at checkout
+    item_description    varchar(200),
     primary key (tx_id, cat_item_id)
 );
 
@@ -103,9 +108,13 @@ create index async on xpoints.order_items (tx_id);
 create table xpoints.images
 (
     id          uuid primary key default gen_random_uuid(),
-    filename    varchar(100)
+    filename    varchar(100),
+    created     timestamp default now()
 );
 
+-- Incremental presigning picks up images created after its high-water mark
+create index async on xpoints.images (created);
+
 create table xpoints.image_urls
 (
     image_id           uuid,
@@ -115,6 +124,18 @@ create table xpoints.image_urls
     primary key (image_id, region)
 );
 
+-- Incremental presigning looks up the URLs due for refresh in its region
+create index async on xpoints.image_urls (region, created);
+
+create table xpoints.job_checkpoints
+(
+    job_name            varchar(100),               -- A run of a job can add its own suffix to keep separate checkpoints
+    region              varchar(20),
+    checkpoint          varchar(100),               -- Where the job's next run picks up, in a format of its own
+    updated_at          timestamp default now(),
+    primary key (job_name, region)
+);
+
 create role rewards_ro with login;
 grant usage on schema xpoints to rewards_ro;
 grant select on all tables in schema xpoints to rewards_ro;
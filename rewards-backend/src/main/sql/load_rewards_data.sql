@@ -1,8 +1,8 @@
-\copy xpoints.images from '~/aws-summit-dsql-workshop-main/rewards-backend/src/main/sql/images.csv' csv escape '\';
+\copy xpoints.images (id, filename) from '~/aws-summit-dsql-workshop-main/rewards-backend/src/main/sql/images.csv' csv escape '\';
 \copy xpoints.customers from '~/aws-summit-dsql-workshop-main/rewards-backend/src/main/sql/customers.csv' csv escape '\';
 \copy xpoints.points_balances from '~/aws-summit-dsql-workshop-main/rewards-backend/src/main/sql/points_balances.csv' csv escape '\';
-\copy xpoints.catalog_items from '~/aws-summit-dsql-workshop-main/rewards-backend/src/main/sql/catalog_items.csv' csv escape '\';
+\copy xpoints.catalog_items (id, name, description, category, usd_price, points_price, rating, sku, weight, width, height, depth, thumbnail_id) from '~/aws-summit-dsql-workshop-main/rewards-backend/src/main/sql/catalog_items.csv' csv escape '\';
 \copy xpoints.catalog_images from '~/aws-summit-dsql-workshop-main/rewards-backend/src/main/sql/catalog_images.csv' csv escape '\';
 \copy xpoints.transactions from '~/aws-summit-dsql-workshop-main/rewards-backend/src/main/sql/transactions.csv' csv escape '\';
-\copy xpoints.order_items from '~/aws-summit-dsql-workshop-main/rewards-backend/src/main/sql/order_items.csv' csv escape '\';
+\copy xpoints.order_items (tx_id, cat_item_id, unit_cnt, unit_points_price) from '~/aws-summit-dsql-workshop-main/rewards-backend/src/main/sql/order_items.csv' csv escape '\';
 \copy xpoints.shopping_cart_items from '~/aws-summit-dsql-workshop-main/rewards-backend/src/main/sql/shopping_cart_items.csv' csv escape '\';
@@ -0,0 +1,191 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package software.amazon.dsql.rewards.cfn;
+
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderClient;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.*;
+
+import software.amazon.dsql.rewards.AdaptiveBackoffPolicy;
+import software.amazon.dsql.rewards.TokenBucket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class RegistrationQueueHandlerTest {
+    private static final String POOL_ID = "test-pool";
+
+    @Test
+    void reportsOnlyTheFailedMessages() {
+        InMemoryCognito cognito = new InMemoryCognito();
+        cognito.users.put("existing", "secret");
+        cognito.rejected.add("bad");
+
+        SQSBatchResponse response = handler(cognito, 100d).handleRequest(
+                event("existing", "new", "bad"), null);
+
+        List<String> failed = response.getBatchItemFailures().stream()
+                .map(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .toList();
+        assertEquals(List.of("msg-bad"), failed);
+        assertEquals("new-password", cognito.passwords.get("new"));
+        assertFalse(cognito.users.containsKey("bad"));
+    }
+
+    @Test
+    void retriesThrottledCalls() {
+        InMemoryCognito cognito = new InMemoryCognito();
+        cognito.throttles.set(2);
+
+        SQSBatchResponse response = handler(cognito, 100d).handleRequest(event("new"), null);
+
+        assertTrue(response.getBatchItemFailures().isEmpty());
+        assertEquals(3, cognito.getCalls.get());
+        assertEquals("new-password", cognito.passwords.get("new"));
+    }
+
+    @Test
+    void backsOffPastTheQuotaWindow() {
+        InMemoryCognito cognito = new InMemoryCognito();
+        cognito.throttles.set(2);
+
+        long start = System.nanoTime();
+        SQSBatchResponse response = new RegistrationQueueHandler(cognito, POOL_ID,
+                new TokenBucket(100d, 1d), new TokenBucket(100d, 1d), new TokenBucket(100d, 1d),
+                RegistrationQueueHandler.newBackoffPolicy()).handleRequest(event("new"), null);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Two throttled attempts in a row must wait out the rest of the one second quota window
+        assertTrue(response.getBatchItemFailures().isEmpty());
+        assertTrue(elapsedMillis >= 1000, "Retried within " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void givesUpAfterRepeatedThrottling() {
+        InMemoryCognito cognito = new InMemoryCognito();
+        cognito.throttles.set(Integer.MAX_VALUE);
+
+        SQSBatchResponse response = handler(cognito, 100d).handleRequest(event("new"), null);
+
+        assertEquals(1, response.getBatchItemFailures().size());
+        assertEquals(5, cognito.getCalls.get());
+    }
+
+    @Test
+    void honoursTheCallRate() {
+        InMemoryCognito cognito = new InMemoryCognito();
+        String[] usernames = new String[21];
+        for (int i = 0; i < usernames.length; i++) {
+            usernames[i] = "user" + i;
+            cognito.users.put(usernames[i], "secret");
+        }
+
+        long start = System.nanoTime();
+        SQSBatchResponse response = handler(cognito, 20d).handleRequest(event(usernames), null);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // One call is allowed straight away, the other 20 are spaced 50 ms apart
+        assertTrue(response.getBatchItemFailures().isEmpty());
+        assertEquals(21, cognito.getCalls.get());
+        assertTrue(elapsedMillis >= 900, "21 calls at 20 per second took only " + elapsedMillis + " ms");
+    }
+
+    /**
+     * Returns a handler whose backoff starts at a millisecond, so retries don't slow the tests down.
+     */
+    private static RegistrationQueueHandler handler(InMemoryCognito cognito, double ratePerSecond) {
+        return new RegistrationQueueHandler(cognito, POOL_ID,
+                new TokenBucket(ratePerSecond, 1d),
+                new TokenBucket(ratePerSecond, 1d),
+                new TokenBucket(ratePerSecond, 1d),
+                new AdaptiveBackoffPolicy(1d, 1d));
+    }
+
+    private static SQSEvent event(String... usernames) {
+        List<SQSEvent.SQSMessage> messages = new ArrayList<>();
+        for (String username : usernames) {
+            SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+            message.setMessageId("msg-" + username);
+            message.setBody("{\"username\":\"" + username + "\",\"email\":\"" + username
+                    + "@example.com\",\"password\":\"" + username + "-password\"}");
+            messages.add(message);
+        }
+
+        SQSEvent event = new SQSEvent();
+        event.setRecords(messages);
+        return event;
+    }
+
+    /**
+     * Keeps users in memory. Get calls throw TooManyRequestsException while throttles remain, and creating a user
+     * listed in rejected fails with a non-retryable error.
+     */
+    private static class InMemoryCognito implements CognitoIdentityProviderClient {
+        final Map<String, String> users = new ConcurrentHashMap<>();
+        final Map<String, String> passwords = new ConcurrentHashMap<>();
+        final Set<String> rejected = ConcurrentHashMap.newKeySet();
+        final AtomicInteger throttles = new AtomicInteger();
+        final AtomicInteger getCalls = new AtomicInteger();
+
+        @Override
+        public AdminGetUserResponse adminGetUser(AdminGetUserRequest request) {
+            assertEquals(POOL_ID, request.userPoolId());
+            getCalls.incrementAndGet();
+            if (throttles.getAndUpdate(t -> Math.max(0, t - 1)) > 0)
+                throw TooManyRequestsException.builder().message("Rate exceeded").build();
+            if (!users.containsKey(request.username()))
+                throw UserNotFoundException.builder().message("User does not exist.").build();
+
+            return AdminGetUserResponse.builder().username(request.username()).build();
+        }
+
+        @Override
+        public AdminCreateUserResponse adminCreateUser(AdminCreateUserRequest request) {
+            if (rejected.contains(request.username()))
+                throw InvalidParameterException.builder().message("Invalid user " + request.username()).build();
+
+            users.put(request.username(), request.temporaryPassword());
+            return AdminCreateUserResponse.builder().build();
+        }
+
+        @Override
+        public AdminSetUserPasswordResponse adminSetUserPassword(AdminSetUserPasswordRequest request) {
+            assertTrue(request.permanent());
+            passwords.put(request.username(), request.password());
+            return AdminSetUserPasswordResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}